@@ -22,6 +22,29 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         return result;
     }
 
+    /**
+     * Clear batch and fill it with the next tuples, reading straight from
+     * readNext() instead of going through hasNext()/next() per tuple.
+     * @return the number of tuples read, 0 when the iteration is finished
+     */
+    public int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        batch.clear();
+        Tuple t = takeReadAhead();
+        if (t != null) batch.add(t);
+        while (!batch.isFull() && (t = readNext()) != null) batch.add(t);
+        return batch.size();
+    }
+
+    /**
+     * Hand over the tuple hasNext() has read ahead, if any, so that subclasses
+     * reading in batches do not skip it.
+     */
+    protected Tuple takeReadAhead() {
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
     /** If subclasses override this, they should call super.close(). */
     public void close() {
         // Ensures that a future call to next() will fail
@@ -3,18 +3,28 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, grouped by any number of columns, are
+ * computed by a {@link HashAggregator} in a single pass over the child.
+ * <p>
+ * When the child returns the tuples of each group next to each other, a
+ * {@link BTreeScan} on the group-by field or an {@link OrderBy} on the
+ * group-by fields, the aggregate streams: each group is returned as soon as
+ * the next one starts, and only one group is kept in memory.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
-    private int afield, gfield;
-    private Aggregator.Op aop;
-    private Aggregator aggregator;
-    private Type gbfieldType;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private HashAggregator aggregator;
+    //流式聚合：child按group有序时，head是下一组的第一个元组
+    private boolean streaming;
+    private transient TupleBatch input;
+    private int inputPos;
+    private transient Tuple head;
     /**
      * Constructor.
      *
@@ -35,28 +45,54 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
-        this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-
-        if(gfield==Aggregator.NO_GROUPING) gbfieldType=null;
-        else gbfieldType=child.getTupleDesc().getFieldType(gfield);
-
-        if(child.getTupleDesc().getFieldType(afield)==Type.STRING_TYPE)
-            aggregator=new StringAggregator(gfield,gbfieldType,afield,aop);
-        else aggregator=new IntegerAggregator(gfield,gbfieldType,afield,aop);
+        this(child, gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new int[] { afield }, new Aggregator.Op[] { aop });
+    }
 
+    /**
+     * Constructor for several aggregates and group-by columns. The output
+     * tuples are the group-by columns followed by one column per aggregate.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param gfields
+     *            The columns over which we are grouping the result, none if
+     *            there is no grouping
+     * @param afields
+     *            The column of each aggregate
+     * @param aops
+     *            The aggregation operator of each aggregate; a string column
+     *            only supports COUNT
+     */
+    public Aggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        this.child = child;
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] gtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            gtypes[i] = childTd.getFieldType(gfields[i]);
+        for (int a = 0; a < afields.length; a++)
+            if (childTd.getFieldType(afields[a]) == Type.STRING_TYPE && aops[a] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException("unsupported aggregate " + aops[a] + " over strings");
+        aggregator = new HashAggregator(gfields, gtypes, afields, aops);
     }
 
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     *         {@link simpledb.Aggregator#NO_GROUPING}. With several group-by
+     *         fields this is the first one.
      * */
     public int groupField() {
         // some code goes here
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /** @return the indexes of all group-by fields in the <b>INPUT</b> tuples */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -66,25 +102,31 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
         // some code goes here
-        if(gfield==Aggregator.NO_GROUPING) return null;
-        return child.getTupleDesc().getFieldName(0);
+        if(gfields.length==0) return null;
+        return child.getTupleDesc().getFieldName(gfields[0]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the aggregate field, the field of the first aggregate if there
+     *         are several
      * */
     public int aggregateField() {
         // some code goes here
-        return afield;
+        return afields[0];
+    }
+
+    /** @return the input field of every aggregate */
+    public int[] aggregateFields() {
+        return afields.clone();
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     * @return return the name of the aggregate field in the <b>INPUT</b>
      *         tuples
      * */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(1);
+        return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
@@ -92,49 +134,158 @@ public class Aggregate extends Operator {
      * */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return aop;
+        return aops[0];
+    }
+
+    /** @return the operator of every aggregate */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
 
+    /**
+     * Set how many groups are kept in memory; the tuples of further groups
+     * are spilled to disk and aggregated partition by partition.
+     */
+    public void setMemoryBudget(int groups) {
+        aggregator.setMemoryBudget(groups);
+    }
+
+    private boolean intAggregates() {
+        for (int afield : afields)
+            if (child.getTupleDesc().getFieldType(afield) != Type.INT_TYPE)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return true if child returns the tuples of each group next to each
+     *         other, so the groups can be aggregated one at a time; operators
+     *         that keep the order of their input, such as Filter, are looked
+     *         through as {@link SortMergeJoin#isSortedOn} does
+     */
+    public static boolean isGroupedOn(OpIterator child, int[] gfields) {
+        if (gfields.length == 0)
+            return false;
+        if (gfields.length == 1 && SortMergeJoin.isSortedOn(child, gfields[0]))
+            return true;
+        while (child instanceof Filter)
+            child = ((Filter) child).getChildren()[0];
+        if (child instanceof OrderBy) {
+            //group by列要是排序列的前缀，顺序和升降序无关
+            int[] order = ((OrderBy) child).getOrderByFields();
+            if (order.length < gfields.length || ((OrderBy) child).getLimit() != OrderBy.NO_LIMIT)
+                return false;
+            int[] prefix = Arrays.copyOf(order, gfields.length);
+            int[] groups = gfields.clone();
+            Arrays.sort(prefix);
+            Arrays.sort(groups);
+            return Arrays.equals(prefix, groups);
+        }
+        return false;
+    }
+
+    /** @return true if open() streams the groups instead of hashing them */
+    public boolean isStreaming() {
+        return isGroupedOn(child, gfields);
+    }
+
     private OpIterator it;
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
         super.open();
         child.open();
-        while(child.hasNext()){
-            aggregator.mergeTupleIntoGroup(child.next());
+        aggregator.clear();
+        streaming = isStreaming();
+        if (streaming) {
+            input = new TupleBatch();
+            inputPos = 0;
+            head = read();
+            return;
+        }
+        if(intAggregates()){
+            //int聚合按列合并，不创建Field
+            ColumnBatch columns = new ColumnBatch(child.getTupleDesc());
+            while(child.nextColumns(columns) > 0)
+                aggregator.mergeColumns(columns);
+        }
+        else{
+            TupleBatch batch = new TupleBatch();
+            while(child.nextBatch(batch) > 0){
+                for(int i = 0; i < batch.size(); i++)
+                    aggregator.mergeTupleIntoGroup(batch.get(i));
+            }
         }
         it=aggregator.iterator();
         it.open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple: the group-by fields, if any, followed by the
+     * result of each aggregate. Should return null if there are no more
+     * tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if(streaming) return nextGroup();
         if(it.hasNext()) return it.next();
         else return null;
     }
 
+    @Override
+    protected void fetchBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        if(streaming) super.fetchBatch(batch);
+        else it.nextBatch(batch);
+    }
+
+    /** Aggregate the tuples from head up to the first one of another group */
+    private Tuple nextGroup() throws TransactionAbortedException, DbException {
+        if (head == null)
+            return null;
+        aggregator.clear();
+        Tuple first = head;
+        do {
+            aggregator.mergeTupleIntoGroup(head);
+            head = read();
+        } while (head != null && sameGroup(first, head));
+        return aggregator.onlyGroup();
+    }
+
+    private boolean sameGroup(Tuple t1, Tuple t2) {
+        for (int g : gfields)
+            if (!t1.getField(g).equals(t2.getField(g)))
+                return false;
+        return true;
+    }
+
+    private Tuple read() throws TransactionAbortedException, DbException {
+        if (inputPos == input.size()) {
+            inputPos = 0;
+            if (child.nextBatch(input) == 0)
+                return null;
+        }
+        return input.get(inputPos++);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        if (streaming) {
+            child.rewind();
+            input.clear();
+            inputPos = 0;
+            head = read();
+            return;
+        }
         it.rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group-by fields, if any,
+     * followed by one int column per aggregate.
      *
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -143,24 +294,28 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        //return aggregator.iterator().getTupleDesc();
-        Type[] typeAr;
-        String[] fieldAr;
-        String nameAggregateCol= nameOfAggregatorOp(aop)+" "+ child.getTupleDesc().getFieldName(afield);
-        if(gfield==Aggregator.NO_GROUPING){
-            typeAr=new Type[]{Type.INT_TYPE};
-            fieldAr=new String[]{nameAggregateCol};
+        TupleDesc childTd = child.getTupleDesc();
+        int n = gfields.length;
+        Type[] typeAr = new Type[n + afields.length];
+        String[] fieldAr = new String[typeAr.length];
+        for (int i = 0; i < n; i++) {
+            typeAr[i] = childTd.getFieldType(gfields[i]);
+            fieldAr[i] = childTd.getFieldName(gfields[i]);
         }
-        else{
-            typeAr=new Type[]{child.getTupleDesc().getFieldType(gfield),Type.INT_TYPE};
-            fieldAr=new String[]{child.getTupleDesc().getFieldName(gfield),nameAggregateCol};
+        for (int a = 0; a < afields.length; a++) {
+            typeAr[n + a] = Type.INT_TYPE;
+            fieldAr[n + a] = nameOfAggregatorOp(aops[a]) + " " + childTd.getFieldName(afields[a]);
         }
         return new TupleDesc(typeAr,fieldAr);
     }
 
     public void close() {
         // some code goes here
-        it.close();
+        if (it != null) it.close();
+        it = null;
+        input = null;
+        head = null;
+        aggregator.clear();
         child.close();
         super.close();
     }
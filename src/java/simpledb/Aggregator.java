@@ -73,8 +73,9 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if the tuple cannot be kept, e.g. spilled to disk
      */
-    public void mergeTupleIntoGroup(Tuple tup);
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException;
 
     /**
      * Create a OpIterator over group aggregate results.
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -62,48 +63,47 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage from a buffer holding the bytes of the page, e.g.
+	 * a read-only slice of a memory mapped BTreeFile. The bytes are copied
+	 * once as the before image, since the mapped region changes whenever the
+	 * page is written back.
+	 *
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		byte[] bytes = new byte[BufferPool.getPageSize()];
+		ByteBuffer buf = data.duplicate();
+		buf.get(bytes, 0, Math.min(bytes.length, buf.remaining()));
+		buf = ByteBuffer.wrap(bytes);
 
 		// Read the parent and sibling pointers
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.parent = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.leftSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			Field f = Type.INT_TYPE.parse(dis);
-			this.rightSibling = ((IntField) f).getValue();
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-		}
+		this.parent = buf.getInt();
+		this.leftSibling = buf.getInt();
+		this.rightSibling = buf.getInt();
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		buf.get(header);
 
 		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
 			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
+				tuples[i] = readNextTuple(buf,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
-		dis.close();
 
-		setBeforeImage();
+		synchronized(oldDataLock)
+		{
+			oldData = bytes;
+		}
 	}
 
 	/** 
@@ -156,16 +156,14 @@ public class BTreeLeafPage extends BTreePage {
 	/**
 	 * Read tuples from the source file.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
+	private Tuple readNextTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
+		// if associated bit is not set, skip forward to the next tuple, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
+			try {
+				buf.position(buf.position() + td.getSize());
+			} catch (IllegalArgumentException e) {
+				throw new NoSuchElementException("error reading empty tuple");
 			}
 			return null;
 		}
@@ -176,10 +174,10 @@ public class BTreeLeafPage extends BTreePage {
 		t.setRecordId(rid);
 		try {
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
+				Field f = td.getFieldType(j).parse(buf);
 				t.setField(j, f);
 			}
-		} catch (java.text.ParseException e) {
+		} catch (java.text.ParseException | java.nio.BufferUnderflowException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
 		}
@@ -22,7 +22,7 @@ public abstract class BTreePage implements Page {
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
-	protected final Byte oldDataLock=new Byte((byte)0);
+	protected final Object oldDataLock=new Object();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
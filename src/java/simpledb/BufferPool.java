@@ -5,8 +5,7 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-
-import static java.lang.Thread.currentThread;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -31,10 +30,17 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
     private int numPages;
    // private LinkedList<Page> pages;
-    private ConcurrentHashMap<Integer, Page> pages;
+    //以PageId打包成的long为key，不会像pid.hashCode()那样发生冲突
+    private PageTable pages;
     //private ConcurrentHashMap<Integer, lock> locks;
 
     private LockManager lockmanager;
+    //决定evict哪个page的替换策略
+    private final ReplacementPolicy policy;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    //被evict或flushAllPages提前写回磁盘（steal）的page在事务修改前的内容，事务中止时写回磁盘
+    private final ConcurrentHashMap<TransactionId, Map<PageId, Page>> stolen;
 //    private class lock {
 //        private TransactionId transactionId = null;
 //        private Permissions permissions = null;
@@ -62,12 +68,54 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
+        this(numPages, new LRUKReplacementPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to choose which page to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy, e.g. ClockReplacementPolicy,
+     *               LRUKReplacementPolicy or TwoQReplacementPolicy
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         this.numPages = numPages;
-        pages = new ConcurrentHashMap<>();
+        this.policy = policy;
+        pages = new PageTable(numPages);
         lockmanager=new LockManager();
+        hitCount = new AtomicLong(0);
+        missCount = new AtomicLong(0);
+        stolen = new ConcurrentHashMap<>();
         //pageIdIndex = new ConcurrentHashMap<>();
        // locks = new ConcurrentHashMap<>();
     }
+
+    /** @return the replacement policy used by this buffer pool */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+    /** The lock table, e.g. to tune its deadlock detection. */
+    public LockManager getLockManager() {
+        return lockmanager;
+    }
+
+    /** @return number of getPage calls served from the pool */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** @return number of getPage calls that had to read the page from disk */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Reset the hit/miss counters, e.g. after warming up the pool. */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
     
     public static int getPageSize() {
       return pageSize;
@@ -102,76 +150,30 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        //锁机制
-        /**
-         * 下面的是通过依赖图判环来检测死锁的部分，默认情况下这段代码应该是非注释状态。
-         * 在使用下面的代码片段的时候，需要把这段代码注释。
-         */
-      /*
-       while(!lockmanager.acquireLock(tid,pid,perm)) {
-            try{
-                Thread.sleep(10);
-            }
-            catch(InterruptedException e){
-                e.printStackTrace();
-            }
-            if (lockmanager.isexistCycle(tid)) {
-                throw new TransactionAbortedException();
-            }
-        }
-
-//*/
-        /**
-          * 下面的是通过超时策略来检测死锁的部分，把上面的找环检测死锁的部分注释，下面的
-         * 取消注释就可以编译成功了。
-         */
-///*
-        Long begin=System.currentTimeMillis();
-        //System.out.println(System.currentTimeMillis()+"begin"+currentThread().getName());
-        while(!lockmanager.acquireLock(tid,pid,perm)) {
-            Long end=System.currentTimeMillis();
-            //System.out.println(System.currentTimeMillis()+"test"+currentThread().getName());
-            if(end-begin>300){
-                throw new TransactionAbortedException();
-            }
-            /*try {
-                Thread.sleep(10);
-            }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-            }*/
-        }
-//*/
-        /**
-         * 下面的代码是超时策略，但没有加入检测死锁机制，
-         * 因为AbortEvictionTest生成的数据包含死锁，但不能自动捕获抛出的异常，
-         * 而导致程序会异常终止，故检查AbortEvictionTest和BTreeDeadlockTest应使用这段代码。
-         * */
-/*
-        if(!lockmanager.acquireLock(tid,pid,perm)) {
-            try {
-                Thread.sleep(10);
-            }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-//*/
+        //锁机制：拿不到锁时在该page的等待队列上睡眠，直到锁被释放；
+        //死锁由LockManager的后台检测线程发现，被选为牺牲者的事务在这里中止
+        lockmanager.acquireLock(tid,pid,perm,LockManager.NO_TIMEOUT);
 
         //在锁机制后，读page
-        if(!pages.containsKey(pid.hashCode())){
-            //if the page is not in BufferPool
-            DbFile dbfile= Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page tempPage=dbfile.readPage(pid);
-            if(pages.size()>=numPages) {
-                //pages is full, need to be evict.
-                evictPage();
-            }
-            //page is not full
-            pages.put(pid.hashCode(), tempPage);
+        Page page = pages.get(pid);
+        if(page != null){
+            //the page is in BufferPool already
+            hitCount.incrementAndGet();
+            policy.pageHit(pid);
+            return page;
+        }
+        //if the page is not in BufferPool
+        missCount.incrementAndGet();
+        DbFile dbfile= Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page tempPage=dbfile.readPage(pid);
+        if(pages.size()>=numPages) {
+            //pages is full, need to be evict.
+            evictPage();
         }
-        //the page is in BufferPool already
-        return pages.get(pid.hashCode());
+        //page is not full
+        pages.put(pid, tempPage);
+        policy.pageLoaded(pid);
+        return tempPage;
     }
 
     /**
@@ -219,16 +221,24 @@ public class BufferPool {
      * added by Sakura
      * Revert changes made in specific transaction
      * */
-    public synchronized void revertchanges(TransactionId tid){
-
-        for(Integer it:pages.keySet()){
-            Page now_page=pages.get(it);
-            if(now_page.isDirty()==tid){
-                int now_tableid=now_page.getId().getTableId();
-                DbFile f=Database.getCatalog().getDatabaseFile(now_tableid);
-                Page revert_page=f.readPage(now_page.getId());
-                pages.put(it,revert_page);
-                //page_hashmap.get(it).setBeforeImage();
+    public synchronized void revertchanges(TransactionId tid) throws IOException {
+        //已经被steal到磁盘上的修改：写回第一次steal时记下的before image
+        Map<PageId,Page> images=stolen.remove(tid);
+        if(images!=null){
+            for(Page before:images.values()){
+                Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+            }
+        }
+        //tid只能修改它持有写锁的page，不需要扫描整个BufferPool。
+        //B+树在操作中途中止时，已经就地修改的page还没有markDirty，所以持有写锁的page都要丢弃，
+        //之后从磁盘重新读取
+        for(PageId pid:lockmanager.lockedPages(tid)){
+            Page now_page=pages.get(pid);
+            if(now_page==null) continue;
+            LockManager.Lock lock=lockmanager.getLock(tid,pid);
+            if(now_page.isDirty()==tid||lock!=null&&lock.getLockType()==Permissions.READ_WRITE){
+                pages.remove(pid);
+                policy.pageRemoved(pid);
             }
         }
     }
@@ -236,8 +246,17 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        if(commit) flushPages(tid);//写到磁盘上
-        else revertchanges(tid);//事务恢复
+        if(commit) {
+            flushPages(tid);//写到磁盘上
+            stolen.remove(tid);
+            //事务提交后，其加锁的page当前内容即为新的before image，
+            //包括已经被flushAllPages或evict提前写回磁盘的page
+            for(PageId pid:lockmanager.lockedPages(tid)){
+                Page now_page=pages.get(pid);
+                if(now_page!=null) now_page.setBeforeImage();
+            }
+        }
+        else revertchanges(tid);//事务恢复，已被steal到磁盘上的修改也一并撤销
 //        for(Integer it:pages.keySet()){
 //            //遍历当前bufferpool中的全部page，找到所有被当前tid修改过的page
 //            Page pg = pages.get(it);
@@ -251,11 +270,7 @@ public class BufferPool {
 //            }
 //        }
         //将与当前事务有关的全部lock释放
-        for(Integer it:pages.keySet()){
-            if(holdsLock(tid,pages.get(it).getId())){
-                releasePage(tid,pages.get(it).getId());
-            }
-        }
+        lockmanager.releaseAllLocks(tid);
     }
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
@@ -277,15 +292,28 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile now_dbfile=Database.getCatalog().getDatabaseFile(tableId);
-        ArrayList<Page> temp_arraylist=now_dbfile.insertTuple(tid,t);
+        cacheDirtied(tid,now_dbfile.insertTuple(tid,t));
+    }
+
+    /**
+     * Mark the pages an insert or delete dirtied and put them back into the
+     * pool. Done as one step with respect to eviction, so that a page stolen
+     * while the operation was still changing it is put back dirty instead of
+     * being dropped as clean.
+     */
+    private synchronized void cacheDirtied(TransactionId tid, ArrayList<Page> temp_arraylist) {
         for (Page now_page:temp_arraylist) {
             //System.out.println(now_page.getId()+"insert1");
             now_page.markDirty(true,tid);
-            if(pages.containsKey(now_page.getId().hashCode()))
-                pages.replace(now_page.getId().hashCode(),now_page);
+            if(pages.containsKey(now_page.getId())) {
+                pages.put(now_page.getId(), now_page);
+                policy.pageHit(now_page.getId());
+            }
             else{
                 //this.getPage(tid,now_page.getId(),Permissions.READ_WRITE);
-                pages.put(now_page.getId().hashCode(),now_page);
+                // 不能从磁盘中读取，因为磁盘中的page仍为更新前的，要直接在cache中添加此page并标记为dirty，以便未来在磁盘上再更新。
+                pages.put(now_page.getId(),now_page);
+                policy.pageLoaded(now_page.getId());
                 //locks.put(now_page.getId().hashCode(), new lock(tid,Permissions.READ_WRITE,now_page.getId().hashCode()));
             }
         }
@@ -309,19 +337,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile now_dbfile=Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        ArrayList<Page> temp_arraylist=now_dbfile.deleteTuple(tid,t);
-        for(Page now_page:temp_arraylist){
-            //System.out.println(now_page.getId()+"delete1");
-            now_page.markDirty(true,tid);
-            if(pages.containsKey(now_page.getId().hashCode()))
-                pages.replace(now_page.getId().hashCode(),now_page);
-            else{
-                //this.getPage(tid,now_page.getId(),Permissions.READ_WRITE);
-                // 不能从磁盘中读取，因为磁盘中的page仍为更新前的，要直接在cache中添加此page并标记为dirty，以便未来在磁盘上再更新。
-                pages.put(now_page.getId().hashCode(),now_page);
-                //locks.put(now_page.getId().hashCode(), new lock(tid,Permissions.READ_WRITE,now_page.getId().hashCode()));
-            }
-        }
+        cacheDirtied(tid,now_dbfile.deleteTuple(tid,t));
     }
 
     /**
@@ -332,9 +348,11 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
+        List<Page> dirty=new ArrayList<>();
         for(Page now_page:pages.values()){
-            flushPage(now_page.getId());
+            if(now_page.isDirty()!=null) dirty.add(now_page);
         }
+        writePages(dirty,true);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -349,7 +367,8 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         //locks.remove(pid.hashCode());
-        pages.remove(pid.hashCode());
+        if(pages.remove(pid)!=null)
+            policy.pageRemoved(pid);
     }
 
     /**
@@ -359,9 +378,34 @@ public class BufferPool {
     private synchronized void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page now_page=pages.get(pid.hashCode());
-        if(now_page.isDirty()!=null){
-            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(now_page);
+        Page now_page=pages.get(pid);
+        if(now_page!=null&&now_page.isDirty()!=null){
+            writePages(Collections.singletonList(now_page),true);
+        }
+    }
+
+    /**
+     * Write-ahead logging: first append an UPDATE record for every page and
+     * force the log, only then write the pages to their files. Forcing once
+     * per batch instead of once per page keeps commit of large transactions
+     * cheap.
+     *
+     * @param steal true if the pages are written before their transactions
+     *              commit, so their before images are kept to undo the write
+     *              on abort
+     */
+    private synchronized void writePages(List<Page> dirty, boolean steal) throws IOException {
+        if(dirty.isEmpty()) return;
+        LogFile log=Database.getLogFile();
+        for(Page now_page:dirty){
+            Page before=now_page.getBeforeImage();
+            log.logWrite(now_page.isDirty(),before,now_page);
+            //同一个page被steal多次时，第一次的before image才是事务修改前的内容
+            if(steal) stolen.computeIfAbsent(now_page.isDirty(),k->new HashMap<>()).putIfAbsent(now_page.getId(),before);
+        }
+        log.force();
+        for(Page now_page:dirty){
+            Database.getCatalog().getDatabaseFile(now_page.getId().getTableId()).writePage(now_page);
             now_page.markDirty(false,null);
         }
     }
@@ -371,36 +415,42 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for(Integer it:pages.keySet()){
-            Page now_page=pages.get(it);
-            if(now_page.isDirty()==tid){
-                flushPage(now_page.getId());
+        List<Page> dirty=new ArrayList<>();
+        for(PageId pid:lockmanager.lockedPages(tid)){
+            Page now_page=pages.get(pid);
+            if(now_page!=null&&now_page.isDirty()==tid){
+                dirty.add(now_page);
             }
         }
+        writePages(dirty,false);
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * STEAL: clean pages are preferred, but if every page is dirty the victim
+     * is written out (after its UPDATE record is forced to the log) and the
+     * uncommitted change is undone from the log on abort or recovery.
      */
     private synchronized void evictPage() throws DbException {
         // some code goes here
-        //只有非dirty的page会被evict，若所有page都为dirty，则会抛出DbException
         // not necessary for lab1
-        //if(!it.hasNext()) throw new DbException("can not find any page in cache");
-        for (Integer integer : pages.keySet()) {
-            Page tPage = pages.get(integer);
-            if (tPage.isDirty() == null) {//该page为非dirty
-                pages.remove(tPage.getId().hashCode());
-                return;
+        PageId victim = policy.chooseVictim(pid -> {
+            Page p = pages.get(pid);
+            return p != null && p.isDirty() == null;
+        });
+        if (victim == null) {
+            victim = policy.chooseVictim(pid -> pages.get(pid) != null);
+            if (victim == null) throw new DbException("no page can be evicted");
+            try {
+                flushPage(victim);
+            } catch (IOException e) {
+                throw new DbException("could not flush page " + victim + " on eviction: " + e.getMessage());
             }
         }
-//                try {
-//                    flushPage(tPage.getId());
-//                } catch (IOException e) {
-//                    e.printStackTrace();
-//                }
-        throw new DbException("there are all dirty page");
+        pages.remove(victim);
+        policy.pageRemoved(victim);
     }
 
 }
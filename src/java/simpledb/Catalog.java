@@ -34,6 +34,8 @@ public class Catalog {
      */
     public Catalog() {
         // some code goes here
+        //表是静态的，Database.reset()换掉的旧catalog里的文件要先关掉
+        if (tableNameToFile != null) clear();
         tableNameToFile = new Hashtable<>();
         tableIDToName = new Hashtable<>();
     }
@@ -50,8 +52,18 @@ public class Catalog {
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
         Table tempTable = new Table(file, pkeyField);
-        tableNameToFile.put(name, tempTable);
+        Table old = tableNameToFile.put(name, tempTable);
         tableIDToName.put(tempTable.tableId, name);
+        //同名的表被替换，关掉旧表的文件
+        if (old != null && old.file != file) close(old.file);
+    }
+
+    private static void close(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -127,6 +139,7 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (Table t : tableNameToFile.values()) close(t.file);
         tableIDToName.clear();
         tableNameToFile.clear();
     }
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a ring of frames,
+ * each with a reference bit that is set on every hit. The clock hand sweeps
+ * the ring, clearing set bits and evicting the first evictable page whose
+ * bit is already clear.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+    private final ArrayList<PageId> frames;
+    private final ArrayList<Boolean> referenced;
+    private final HashMap<PageId, Integer> slotOf;
+    private final ArrayDeque<Integer> freeSlots;
+    private int hand;
+
+    public ClockReplacementPolicy() {
+        frames = new ArrayList<>();
+        referenced = new ArrayList<>();
+        slotOf = new HashMap<>();
+        freeSlots = new ArrayDeque<>();
+        hand = 0;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) {
+            referenced.set(slot, true);
+            return;
+        }
+        //优先复用空出来的frame，没有则扩大环
+        if (freeSlots.isEmpty()) {
+            slot = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        } else {
+            slot = freeSlots.pop();
+            frames.set(slot, pid);
+            referenced.set(slot, true);
+        }
+        slotOf.put(pid, slot);
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) referenced.set(slot, true);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot == null) return;
+        frames.set(slot, null);
+        referenced.set(slot, false);
+        freeSlots.push(slot);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        int n = frames.size();
+        if (n == 0) return null;
+        //最多转两圈：第一圈清除引用位，第二圈一定能看到所有可淘汰的page
+        for (int step = 0; step < 2 * n; step++) {
+            if (hand >= n) hand = 0;
+            PageId pid = frames.get(hand);
+            if (pid != null) {
+                if (referenced.get(hand)) {
+                    referenced.set(hand, false);
+                } else if (evictable.canEvict(pid)) {
+                    hand++;
+                    return pid;
+                }
+            }
+            hand++;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnBatch is the columnar counterpart of {@link TupleBatch}: a reusable
+ * block of rows stored one column at a time, filled by
+ * {@link OpIterator#nextColumns}. An INT_TYPE column is a plain int[]; a
+ * STRING_TYPE column is an offset and a length per row into a byte array
+ * owned by the batch. Reading a value does not create a Field, so a scan
+ * that filters and aggregates int columns allocates nothing per row.
+ * <p>
+ * Rows are materialized only on request, by {@link #getField} and
+ * {@link #getTuple}. A row read from a page remembers its page and slot, so
+ * the tuple materialized for it carries the same RecordId as the tuple path.
+ */
+public class ColumnBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private int size;
+    //keep()之后行的字符串可能已经不在自己的位置上，不能再追加新行
+    private boolean compacted;
+
+    private final int[][] ints;
+    private final byte[][] strData;
+    private final int[][] strOff;
+    private final int[][] strLen;
+    //每行来自哪一页哪一个slot，没有RecordId的行pageIds为null
+    private transient PageId[] pageIds;
+    private transient int[] tupleNos;
+
+    private int[] selection;
+    private TupleBatch rows;
+
+    public ColumnBatch(TupleDesc td) {
+        this(td, TupleBatch.DEFAULT_SIZE);
+    }
+
+    public ColumnBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        strData = new byte[n][];
+        strOff = new int[n][];
+        strLen = new int[n][];
+        pageIds = new PageId[capacity];
+        tupleNos = new int[capacity];
+        for (int j = 0; j < n; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                ints[j] = new int[capacity];
+            } else {
+                strData[j] = new byte[capacity * Type.STRING_LEN];
+                strOff[j] = new int[capacity];
+                strLen[j] = new int[capacity];
+            }
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        size = 0;
+        compacted = false;
+    }
+
+    /**
+     * Append an empty row whose columns are then set with setInt() and
+     * setString().
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (size == capacity) throw new IllegalStateException("batch is full");
+        if (compacted) throw new IllegalStateException("batch was compacted, clear() it first");
+        int row = size++;
+        if (pageIds != null) pageIds[row] = null;
+        for (int j = 0; j < strOff.length; j++) {
+            if (strOff[j] != null) {
+                strOff[j][row] = row * Type.STRING_LEN;
+                strLen[j][row] = 0;
+            }
+        }
+        return row;
+    }
+
+    /** Append the fields of a tuple */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        RecordId rid = t.getRecordId();
+        if (rid != null) setRecordId(row, rid.getPageId(), rid.getTupleNumber());
+        for (int j = 0; j < ints.length; j++) {
+            Field f = t.getField(j);
+            if (ints[j] != null) {
+                ints[j][row] = ((IntField) f).getValue();
+            } else {
+                byte[] s = ((StringField) f).getValue().getBytes();
+                int len = Math.min(s.length, Type.STRING_LEN);
+                System.arraycopy(s, 0, strData[j], strOff[j][row], len);
+                strLen[j][row] = len;
+            }
+        }
+    }
+
+    /** Remember that row is the tuple in slot tupleNo of page pid */
+    public void setRecordId(int row, PageId pid, int tupleNo) {
+        if (pageIds == null) {
+            pageIds = new PageId[capacity];
+            tupleNos = new int[capacity];
+        }
+        pageIds[row] = pid;
+        tupleNos[row] = tupleNo;
+    }
+
+    /** @return the RecordId of row, null if it was not read from a page */
+    public RecordId getRecordId(int row) {
+        PageId pid = pageIds == null ? null : pageIds[row];
+        return pid == null ? null : new RecordId(pid, tupleNos[row]);
+    }
+
+    /** @return the values of an INT_TYPE column, valid for rows [0, size()) */
+    public int[] ints(int col) {
+        if (ints[col] == null) throw new IllegalArgumentException("column " + col + " is not an int column");
+        return ints[col];
+    }
+
+    public int getInt(int col, int row) {
+        return ints(col)[row];
+    }
+
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    /** Copy len bytes of a string value straight out of a page buffer */
+    public void setString(int col, int row, ByteBuffer src, int pos, int len) {
+        len = Math.max(0, Math.min(len, Type.STRING_LEN));
+        byte[] data = strData[col];
+        int off = strOff[col][row];
+        for (int i = 0; i < len; i++)
+            data[off + i] = src.get(pos + i);
+        strLen[col][row] = len;
+    }
+
+    public String getString(int col, int row) {
+        return new String(strData[col], strOff[col][row], strLen[col][row]);
+    }
+
+    /** @return the value at (col, row) as a new Field */
+    public Field getField(int col, int row) {
+        if (ints[col] != null) return new IntField(ints[col][row]);
+        return new StringField(getString(col, row), Type.STRING_LEN);
+    }
+
+    /** @return row as a new Tuple, with its RecordId if it has one */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < ints.length; j++)
+            t.setField(j, getField(j, row));
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * Keep only the given rows, in order. No rows can be added afterwards
+     * until the batch is cleared.
+     *
+     * @param rows ascending row indexes, e.g. filled by
+     *            {@link Predicate#filter(ColumnBatch, int[])}
+     * @param n the number of rows to keep
+     */
+    public void keep(int[] rows, int n) {
+        for (int j = 0; j < ints.length; j++) {
+            if (ints[j] != null) {
+                int[] col = ints[j];
+                for (int k = 0; k < n; k++) col[k] = col[rows[k]];
+            } else {
+                //字符串本身不动，只移动偏移和长度
+                int[] off = strOff[j], len = strLen[j];
+                for (int k = 0; k < n; k++) {
+                    off[k] = off[rows[k]];
+                    len[k] = len[rows[k]];
+                }
+            }
+        }
+        if (pageIds != null) {
+            for (int k = 0; k < n; k++) {
+                pageIds[k] = pageIds[rows[k]];
+                tupleNos[k] = tupleNos[rows[k]];
+            }
+        }
+        size = n;
+        compacted = true;
+    }
+
+    /** @return a scratch array of capacity() row indexes, for keep() */
+    public int[] selection() {
+        if (selection == null) selection = new int[capacity];
+        return selection;
+    }
+
+    /** @return a scratch row batch of the same capacity, for adapters */
+    public TupleBatch rows() {
+        if (rows == null) rows = new TupleBatch(capacity);
+        return rows;
+    }
+}
@@ -1,14 +1,22 @@
 package simpledb;
-import java.util.Vector;
 
 /** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+    cost and cardinality of the optimal plan for a set of joins, which is its
+    last join appended to a plan kept in the {@link PlanCache}.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
     public double cost;
     /** The cardinality of the optimal subplan */
     public int card;
-    /** The optimal subplan */
-    public Vector<LogicalJoinNode> plan;
+    /** The index of the last join of the subplan among the joins being
+        ordered, or'ed with {@link JoinOptimizer#SWAPPED} if it runs with its
+        inner and outer swapped */
+    public int join;
+    /** The number of the plan in the PlanCache that the last join extends,
+        or -1 if it joins two base tables */
+    public int parent;
+    /** The bitmask of the join fields, as numbered by the JoinOptimizer, in
+        whose ascending order the subplan returns its tuples */
+    public long sortedOn;
 }
@@ -88,4 +88,11 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Release the file handles this DbFile keeps open, e.g. when the catalog
+     * drops the table. The DbFile may still be used afterwards and then
+     * opens them again.
+     */
+    public void close() throws IOException;
 }
@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * DbFileChannel is the one long-lived FileChannel a DbFile does all its page
+ * I/O through. Reads and writes are positional, so concurrent readers of the
+ * same file never share a file pointer and no file is opened or closed per
+ * page.
+ * <p>
+ * {@link #length} asks the open channel for the size of the file, so it
+ * also sees the file grow or shrink behind the channel's back, without
+ * resolving the path again. Only {@link #write} creates a missing file.
+ * <p>
+ * {@link #map} hands out read-only slices of the file mapped into memory in
+ * chunks of MAP_CHUNK bytes, for scans that want to parse pages in place.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel implements Closeable {
+    /** Size of the regions the file is mapped in. */
+    static final int MAP_CHUNK = 1 << 26;
+
+    private final File file;
+    //第i个元素映射文件的[i*MAP_CHUNK, i*MAP_CHUNK+capacity)
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private volatile FileChannel channel;
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel(boolean create) throws IOException {
+        FileChannel c = channel;
+        if (c != null && c.isOpen()) return c;
+        synchronized (this) {
+            c = channel;
+            if (c == null || !c.isOpen()) {
+                c = create ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)
+                        : FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel = c;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Read bytes starting at position into buf, stopping early only at the
+     * end of the file. The rest of buf is left untouched.
+     *
+     * @return the number of bytes read
+     */
+    public int read(long position, byte[] buf) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    FileChannel c = channel(false);
+                    while (bb.hasRemaining()) {
+                        if (c.read(bb, position + bb.position()) < 0) break;
+                    }
+                    return bb.position();
+                } catch (ClosedByInterruptException e) {
+                    //本线程读写时被interrupt：先清掉标志再重试，否则每次重试都会再关闭一次共用的channel
+                    interrupted = true;
+                    Thread.interrupted();
+                } catch (ClosedChannelException e) {
+                    //另一个线程读写时被interrupt会关闭channel，重新打开后重试
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Write all of data starting at position, growing the file if needed. */
+    public void write(long position, byte[] data) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                ByteBuffer bb = ByteBuffer.wrap(data);
+                try {
+                    FileChannel c = channel(true);
+                    while (bb.hasRemaining()) {
+                        c.write(bb, position + bb.position());
+                    }
+                    break;
+                } catch (ClosedByInterruptException e) {
+                    //同read
+                    interrupted = true;
+                    Thread.interrupted();
+                } catch (ClosedChannelException e) {
+                    //同read
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the length of the file in bytes, 0 if it does not exist yet;
+     *         the file is not created
+     */
+    public long length() throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    return channel(false).size();
+                } catch (NoSuchFileException e) {
+                    return 0;
+                } catch (ClosedByInterruptException e) {
+                    //同read
+                    interrupted = true;
+                    Thread.interrupted();
+                } catch (ClosedChannelException e) {
+                    //同read
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return a read-only view of size bytes of the file starting at position,
+     * backed by a memory mapping of the file. Writes made through this
+     * channel are visible through the view.
+     *
+     * @return the view, or null if the range is past the end of the file or
+     *         straddles two mapped chunks; read() it instead then
+     */
+    public ByteBuffer map(long position, int size) throws IOException {
+        if (position < 0 || position + size > length()) return null;
+        int index = (int) (position / MAP_CHUNK);
+        int offset = (int) (position % MAP_CHUNK);
+        if (offset + size > MAP_CHUNK) return null;
+        MappedByteBuffer[] cs = chunks;
+        MappedByteBuffer chunk = index < cs.length ? cs[index] : null;
+        if (chunk == null || chunk.capacity() < offset + size) chunk = mapChunk(index);
+        ByteBuffer view = chunk.duplicate();
+        view.position(offset);
+        view.limit(offset + size);
+        return view.slice();
+    }
+
+    private synchronized MappedByteBuffer mapChunk(int index) throws IOException {
+        MappedByteBuffer[] cs = chunks;
+        if (index >= cs.length) cs = Arrays.copyOf(cs, index + 1);
+        long start = (long) index * MAP_CHUNK;
+        //文件变长后重新映射最后一个chunk，旧的映射由GC回收
+        long size = Math.min(MAP_CHUNK, length() - start);
+        MappedByteBuffer chunk = cs[index];
+        if (chunk == null || chunk.capacity() < size) {
+            boolean interrupted = Thread.interrupted();
+            try {
+                chunk = channel(false).map(FileChannel.MapMode.READ_ONLY, start, size);
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+            cs[index] = chunk;
+            chunks = cs;
+        }
+        return chunk;
+    }
+
+    /**
+     * Close the file. The channel may still be used afterwards and then
+     * opens the file again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) channel.close();
+        channel = null;
+        chunks = new MappedByteBuffer[0];
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts a stream of tuples that need not fit in memory. Tuples
+ * are buffered up to a memory budget; each full buffer is sorted and written
+ * to a {@link SpillFile} as a run, and the runs are merged with a priority
+ * queue when the sorted output is read. If the input fits in the budget
+ * nothing is written to disk.
+ */
+public class ExternalSort {
+    /** Default number of tuples buffered before a run is written to disk */
+    public static final int DEFAULT_MEMORY = 20000;
+    /** At most this many runs are merged at once; more runs are merged in several passes */
+    public static final int MERGE_FANIN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    private final int memoryBudget;
+    private final ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private final ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private boolean sorted;
+
+    public ExternalSort(TupleDesc td, Comparator<Tuple> cmp) {
+        this(td, cmp, DEFAULT_MEMORY);
+    }
+
+    /**
+     * @param td the TupleDesc of the tuples to sort
+     * @param cmp the sort order
+     * @param memoryBudget the number of tuples kept in memory at once
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> cmp, int memoryBudget) {
+        this.td = td;
+        this.cmp = cmp;
+        this.memoryBudget = Math.max(1, memoryBudget);
+    }
+
+    /** Add a tuple to the input */
+    public void add(Tuple t) throws DbException {
+        if (sorted) throw new IllegalStateException("input already sorted, clear() first");
+        buffer.add(t);
+        if (buffer.size() >= memoryBudget)
+            spill();
+    }
+
+    /** Add all remaining tuples of an open iterator to the input */
+    public void addAll(OpIterator child) throws DbException, TransactionAbortedException {
+        TupleBatch batch = new TupleBatch();
+        while (child.nextBatch(batch) > 0)
+            for (int i = 0; i < batch.size(); i++)
+                add(batch.get(i));
+    }
+
+    private void sortBuffer() {
+        if (cmp instanceof TupleComparator)
+            ((TupleComparator) cmp).sort(buffer);
+        else
+            Collections.sort(buffer, cmp);
+    }
+
+    private void spill() throws DbException {
+        sortBuffer();
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : buffer)
+            run.add(t);
+        runs.add(run);
+        buffer.clear();
+    }
+
+    /** @return the number of runs written to disk so far */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Finish the input and open a cursor over the sorted tuples. Cursors may
+     * be opened again, e.g. to rewind, until clear() is called.
+     */
+    public Cursor sorted() throws DbException {
+        if (!sorted) {
+            //最后一段留在内存里，作为一个内存中的run参与归并
+            sortBuffer();
+            //run太多时先分几趟归并，避免同时打开太多文件
+            while (runs.size() + 1 > MERGE_FANIN) {
+                List<SpillFile> group = new ArrayList<SpillFile>(runs.subList(0, MERGE_FANIN));
+                runs.subList(0, MERGE_FANIN).clear();
+                SpillFile merged = new SpillFile(td);
+                Cursor c = new Cursor(group, null);
+                Tuple t;
+                while ((t = c.next()) != null)
+                    merged.add(t);
+                c.close();
+                for (SpillFile f : group)
+                    f.delete();
+                runs.add(0, merged);
+            }
+            sorted = true;
+        }
+        return new Cursor(runs, buffer);
+    }
+
+    /** Drop the input and remove the runs from disk */
+    public void clear() {
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+        buffer.clear();
+        sorted = false;
+    }
+
+    /** A pass over the sorted tuples, merging all runs */
+    public class Cursor {
+        private final ArrayList<SpillFile.Reader> readers = new ArrayList<SpillFile.Reader>();
+        private final List<Tuple> mem;
+        private int memPos = 0;
+        //堆里存的是各个run的当前元组及其run编号，-1表示内存中的run
+        private final PriorityQueue<Head> heap;
+
+        private Cursor(List<SpillFile> files, List<Tuple> mem) throws DbException {
+            this.mem = mem;
+            heap = new PriorityQueue<Head>(files.size() + 1, new Comparator<Head>() {
+                public int compare(Head a, Head b) {
+                    int c = cmp.compare(a.t, b.t);
+                    //相等时先出较早的run，排序是稳定的；内存中的run最晚
+                    return c != 0 ? c : Integer.compareUnsigned(a.run, b.run);
+                }
+            });
+            for (int i = 0; i < files.size(); i++) {
+                SpillFile.Reader r = files.get(i).reader();
+                readers.add(r);
+                push(i);
+            }
+            push(-1);
+        }
+
+        private void push(int run) throws DbException {
+            Tuple t;
+            if (run < 0)
+                t = mem != null && memPos < mem.size() ? mem.get(memPos++) : null;
+            else
+                t = readers.get(run).next();
+            if (t != null)
+                heap.add(new Head(t, run));
+        }
+
+        /** @return the next tuple in sort order, or null after the last one */
+        public Tuple next() throws DbException {
+            Head h = heap.poll();
+            if (h == null) return null;
+            push(h.run);
+            return h.t;
+        }
+
+        public void close() {
+            for (SpillFile.Reader r : readers)
+                r.close();
+            readers.clear();
+            heap.clear();
+        }
+    }
+
+    private static class Head {
+        final Tuple t;
+        final int run;
+
+        Head(Tuple t, int run) {
+            this.t = t;
+            this.run = run;
+        }
+    }
+}
@@ -74,6 +74,39 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Filters whole batches of the child in place: tuples that pass the
+     * predicate are moved to the front of the batch, and batches with no
+     * passing tuple are skipped.
+     */
+    @Override
+    protected void fetchBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        while (child.nextBatch(batch) > 0) {
+            int k = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Tuple t = batch.get(i);
+                if(this.predicate.filter(t)) batch.set(k++, t);
+            }
+            batch.truncate(k);
+            if (k > 0) return;
+        }
+    }
+
+    /**
+     * Filters whole column batches of the child with
+     * {@link Predicate#filter(ColumnBatch, int[])}, without materializing
+     * the rows.
+     */
+    @Override
+    protected void fetchColumns(ColumnBatch batch) throws TransactionAbortedException, DbException {
+        int[] rows = batch.selection();
+        while (child.nextColumns(batch) > 0) {
+            int k = this.predicate.filter(batch, rows);
+            batch.keep(rows, k);
+            if (k > 0) return;
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
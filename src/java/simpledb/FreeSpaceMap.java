@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile are full, so inserts can
+ * jump straight to a page with room instead of locking and checking every
+ * page from the start of the file.
+ * <p>
+ * The map is a bitmap with one bit per page, set when the page is full. It
+ * is a hint: a page whose bit is clear may turn out to be full (its bit is
+ * then set and the insert moves on), and the map never decides which tuples
+ * exist. Unknown pages, e.g. pages of a file written by HeapFileEncoder, have
+ * their bit clear.
+ * <p>
+ * The map is stored in a side file next to the heap file, "&lt;file&gt;.fsm".
+ * The side file starts with the page size and the length of the heap file
+ * when the map was last written. It is deleted when either does not match
+ * the heap file any more, and code that writes a new heap file in place of
+ * an old one calls {@link #discard} first, since the new file may well have
+ * the same length. Only the byte that changed is written, when a page is
+ * written to the heap file.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+    private static final int HEADER_SIZE = 12;
+
+    private final DbFileChannel heap;
+    private final File file;
+    private final BitSet full;
+    //side文件中的map，可能落后于full（内存中的提示先更新，page写盘时才持久化）
+    private final BitSet persisted;
+    private DbFileChannel side;
+    //side文件的内容是否与内存中的map一致，以及其中记录的堆文件长度
+    private boolean synced;
+    private long recordedLength;
+
+    /**
+     * Load the map for a heap file, or start with every page unknown if there
+     * is no usable side file.
+     *
+     * @param heapFile the file of the HeapFile
+     * @param heap the channel the HeapFile does its I/O through
+     */
+    public FreeSpaceMap(File heapFile, DbFileChannel heap) {
+        this.heap = heap;
+        this.file = sideFile(heapFile);
+        this.full = new BitSet();
+        this.persisted = new BitSet();
+        load();
+    }
+
+    private static File sideFile(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Delete the side file of a heap file, e.g. because the heap file is
+     * about to be replaced by a new one.
+     */
+    public static void discard(File heapFile) {
+        sideFile(heapFile).delete();
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try {
+            DbFileChannel c = channel();
+            byte[] data = new byte[(int) c.length()];
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            //页大小或堆文件长度对不上，说明堆文件被别的途径改写过，整个map作废
+            if (data.length < HEADER_SIZE || c.read(0, data) < data.length
+                    || buf.getInt() != BufferPool.getPageSize() || buf.getLong() != heap.length()) {
+                reset();
+                return;
+            }
+            persisted.or(BitSet.valueOf(buf));
+            full.or(persisted);
+            synced = true;
+            recordedLength = heap.length();
+        } catch (IOException e) {
+            //map只是提示，读不出来就当所有page都未知
+            full.clear();
+            persisted.clear();
+        }
+    }
+
+    /** Drop a side file that no longer describes the heap file */
+    private void reset() throws IOException {
+        side.close();
+        side = null;
+        if (!file.delete()) throw new IOException("could not delete " + file);
+    }
+
+    private DbFileChannel channel() {
+        if (side == null) side = new DbFileChannel(file);
+        return side;
+    }
+
+    /** Close the side file; it is opened again when the map is next written */
+    public synchronized void close() throws IOException {
+        if (side != null) side.close();
+    }
+
+    /** @return the first page at or after pgNo that is not known to be full */
+    public synchronized int nextNotFull(int pgNo) {
+        return full.nextClearBit(pgNo);
+    }
+
+    public synchronized boolean isFull(int pgNo) {
+        return full.get(pgNo);
+    }
+
+    /** Update the in memory hint for a page */
+    public synchronized void setFull(int pgNo, boolean isFull) {
+        full.set(pgNo, isFull);
+    }
+
+    /**
+     * Record the state of a page that was just written to the heap file and
+     * persist it if it changed. Tables that never had a full page get no
+     * side file.
+     */
+    public synchronized void pageWritten(int pgNo, boolean isFull) throws IOException {
+        boolean changed = persisted.get(pgNo) != isFull;
+        full.set(pgNo, isFull);
+        persisted.set(pgNo, isFull);
+        if (!synced) {
+            if (!changed) return;
+            //第一次写：把整个map写出去，并覆盖旧文件中残留的字节
+            DbFileChannel c = channel();
+            byte[] bits = persisted.toByteArray();
+            byte[] data = new byte[(int) Math.max(bits.length, c.length() - HEADER_SIZE)];
+            System.arraycopy(bits, 0, data, 0, bits.length);
+            c.write(HEADER_SIZE, data);
+            synced = true;
+        } else if (changed) {
+            channel().write(HEADER_SIZE + pgNo / 8, new byte[] { byteAt(pgNo / 8) });
+        } else if (recordedLength == heap.length()) {
+            return;
+        }
+        recordedLength = heap.length();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(BufferPool.getPageSize());
+        header.putLong(recordedLength);
+        channel().write(0, header.array());
+    }
+
+    private byte byteAt(int index) {
+        byte b = 0;
+        for (int i = 0; i < 8; i++) {
+            if (persisted.get(index * 8 + i)) b |= 1 << i;
+        }
+        return b;
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * GroupTable assigns the group keys of a hash aggregation dense group
+ * numbers 0, 1, 2, ... in order of first appearance, so an aggregator can
+ * keep its accumulators in primitive arrays indexed by group number instead
+ * of one object per group.
+ * <p>
+ * Keys are either primitive ints, looked up without boxing, or objects with
+ * equals() and hashCode(), e.g. StringFields. The table uses open addressing
+ * with linear probing; the slots hold group numbers, the keys are stored
+ * densely by group number.
+ */
+public class GroupTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean intKeys;
+    //槽里存group编号+1，0表示空槽
+    private int[] slots;
+    private int[] ints;
+    private Object[] objects;
+    private int[] hashes;
+    private int size;
+
+    /**
+     * @param intKeys true if the keys are ints, looked up with find(int) and
+     *            add(int), false if they are objects
+     */
+    public GroupTable(boolean intKeys) {
+        this.intKeys = intKeys;
+        slots = new int[16];
+        hashes = new int[8];
+        if (intKeys)
+            ints = new int[8];
+        else
+            objects = new Object[8];
+    }
+
+    /** @return the mixed hash of a key, also used to partition keys that spill */
+    public static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return the group number of key, or -1 if it has none yet */
+    public int find(int key) {
+        int h = hash(key);
+        int mask = slots.length - 1;
+        for (int i = h & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int g = slots[i] - 1;
+            if (ints[g] == key)
+                return g;
+        }
+        return -1;
+    }
+
+    /** @return the group number of key, or -1 if it has none yet */
+    public int find(Object key) {
+        int h = hash(key.hashCode());
+        int mask = slots.length - 1;
+        for (int i = h & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int g = slots[i] - 1;
+            if (hashes[g] == h && objects[g].equals(key))
+                return g;
+        }
+        return -1;
+    }
+
+    /**
+     * Give key the next group number. The key must not have one yet.
+     *
+     * @return the new group number
+     */
+    public int add(int key) {
+        int g = newGroup(hash(key));
+        ints[g] = key;
+        return g;
+    }
+
+    /**
+     * Give key the next group number. The key must not have one yet.
+     *
+     * @return the new group number
+     */
+    public int add(Object key) {
+        int g = newGroup(hash(key.hashCode()));
+        objects[g] = key;
+        return g;
+    }
+
+    private int newGroup(int h) {
+        if ((size + 1) * 2 > slots.length)
+            rehash(slots.length * 2);
+        int g = size++;
+        if (g == hashes.length) {
+            hashes = Arrays.copyOf(hashes, g * 2);
+            if (intKeys)
+                ints = Arrays.copyOf(ints, g * 2);
+            else
+                objects = Arrays.copyOf(objects, g * 2);
+        }
+        hashes[g] = h;
+        insert(h, g);
+        return g;
+    }
+
+    private void insert(int h, int g) {
+        int mask = slots.length - 1;
+        int i = h & mask;
+        while (slots[i] != 0)
+            i = (i + 1) & mask;
+        slots[i] = g + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int g = 0; g < size; g++)
+            insert(hashes[g], g);
+    }
+
+    /** @return the key of group g of an int table */
+    public int intKey(int g) {
+        return ints[g];
+    }
+
+    /** @return the key of group g of an object table */
+    public Object key(int g) {
+        return objects[g];
+    }
+
+    /** @return the hash of the key of group g */
+    public int hashOf(int g) {
+        return hashes[g];
+    }
+
+    /** Remove all groups */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        if (objects != null)
+            Arrays.fill(objects, 0, size, null);
+        size = 0;
+    }
+}
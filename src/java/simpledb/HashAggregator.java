@@ -0,0 +1,419 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregator computes any number of aggregates over a child, grouped by
+ * any number of fields, in one pass. It maps each group-by value to a dense
+ * group number with a {@link GroupTable}: a single int group-by field is
+ * looked up as a primitive int, a single other field as the Field, several
+ * fields as the list of their Fields. The row count and one accumulator per
+ * aggregate are longs in primitive arrays indexed by group number, so SUM
+ * and AVG do not overflow while summing; a SUM that does not fit an int is
+ * reported when it is read.
+ * <p>
+ * At most a memory budget of groups is kept in the table. Once it is full,
+ * tuples of new groups are written to one of PARTITIONS spill files by the
+ * hash of their group-by value, while tuples of groups already in the table
+ * are still aggregated in memory. When the results are read, each partition
+ * is aggregated on its own by a fresh aggregator, which partitions again on
+ * the next bits of the hash if it is still too big.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of groups kept in memory, see setMemoryBudget() */
+    public static final int MAX_GROUPS = 100000;
+    /** Once the table is full, new groups are split into this many partitions */
+    public static final int PARTITION_BITS = 4;
+    public static final int PARTITIONS = 1 << PARTITION_BITS;
+    //第level层从高位往低位取哈希的第level组PARTITION_BITS位，用完之后只能超出预算
+    private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
+    protected final int[] gbfields;
+    protected final Type[] gbtypes;
+    protected final int[] afields;
+    protected final Op[] ops;
+    private final GroupTable table;
+    private TupleDesc td;
+
+    //每个group的元组个数，以及每个聚合的累加值（SUM/AVG是和，MIN/MAX是当前极值），按group编号存放
+    private long[] counts = new long[16];
+    private final long[][] accs;
+
+    private int memoryBudget = MAX_GROUPS;
+    private int level = 0;
+    private transient SpillFile[] parts;
+    //溢出过时，iterator()要读的全部结果；之后再merge就作废
+    private transient SpillFile results;
+    private transient int[] rowGroups;
+
+    /**
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple, none
+     *            if there is no grouping
+     * @param gbtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple, one
+     *            per aggregate
+     * @param ops
+     *            the aggregation operator of each aggregate; only COUNT is
+     *            meaningful over a string field
+     * @throws IllegalArgumentException if an operator is SUM_COUNT or SC_AVG
+     */
+    public HashAggregator(int[] gbfields, Type[] gbtypes, int[] afields, Op[] ops) {
+        if (gbfields.length != gbtypes.length || afields.length != ops.length || afields.length == 0)
+            throw new IllegalArgumentException("need a type per group-by field and an operator per aggregate");
+        for (Op op : ops)
+            if (op == Op.SUM_COUNT || op == Op.SC_AVG)
+                throw new IllegalArgumentException("unsupported aggregate " + op);
+        this.gbfields = gbfields.clone();
+        this.gbtypes = gbtypes.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.accs = new long[ops.length][16];
+        //不分组时只有一个key为0的group
+        this.table = new GroupTable(intGroups() || gbfields.length == 0);
+    }
+
+    /**
+     * Set how many groups are kept in memory. Tuples of further groups are
+     * spilled to disk and aggregated partition by partition.
+     */
+    public void setMemoryBudget(int groups) {
+        this.memoryBudget = Math.max(1, groups);
+    }
+
+    private boolean intGroups() {
+        return gbfields.length == 1 && gbtypes[0] == Type.INT_TYPE;
+    }
+
+    /** Create the output TupleDesc on the first merge */
+    private void start(TupleDesc childTd) {
+        if (results != null) {
+            results.delete();
+            results = null;
+        }
+        if (td != null) return;
+        int n = gbfields.length;
+        Type[] types = new Type[n + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < n; i++) {
+            types[i] = gbtypes[i];
+            names[i] = childTd.getFieldName(gbfields[i]);
+        }
+        for (int a = 0; a < afields.length; a++) {
+            types[n + a] = Type.INT_TYPE;
+            names[n + a] = childTd.getFieldName(afields[a]);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    private boolean full() {
+        return table.size() >= memoryBudget && level < MAX_LEVEL;
+    }
+
+    /** @return the group of an int key, or -1 if it has none and the table is full */
+    private int intGroup(int key) {
+        int g = table.find(key);
+        if (g < 0 && !full()) {
+            g = table.add(key);
+            newGroup(g);
+        }
+        return g;
+    }
+
+    /** @return the group of an object key, or -1 if it has none and the table is full */
+    private int objectGroup(Object key) {
+        int g = table.find(key);
+        if (g < 0 && !full()) {
+            g = table.add(key);
+            newGroup(g);
+        }
+        return g;
+    }
+
+    private void newGroup(int g) {
+        if (g == counts.length) {
+            counts = Arrays.copyOf(counts, g * 2);
+            for (int a = 0; a < accs.length; a++)
+                accs[a] = Arrays.copyOf(accs[a], g * 2);
+        }
+        counts[g] = 0;
+        for (int a = 0; a < ops.length; a++)
+            accs[a][g] = ops[a] == Op.MIN ? Long.MAX_VALUE : ops[a] == Op.MAX ? Long.MIN_VALUE : 0;
+    }
+
+    /** Merge value into aggregate a of group g; the row is counted separately */
+    private void accumulate(int a, int g, int value) {
+        switch (ops[a]) {
+        case MIN:
+            if (value < accs[a][g]) accs[a][g] = value;
+            break;
+        case MAX:
+            if (value > accs[a][g]) accs[a][g] = value;
+            break;
+        case SUM:
+        case AVG:
+            accs[a][g] += value;
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void update(int g, Tuple tup) {
+        counts[g]++;
+        for (int a = 0; a < ops.length; a++)
+            if (ops[a] != Op.COUNT)
+                accumulate(a, g, ((IntField) tup.getField(afields[a])).getValue());
+    }
+
+    /** @return the value of aggregate a of group g */
+    private Field result(int a, int g) throws DbException {
+        long v;
+        switch (ops[a]) {
+        case COUNT:
+            v = counts[g];
+            break;
+        case AVG:
+            v = accs[a][g] / counts[g];
+            break;
+        default:
+            v = accs[a][g];
+            break;
+        }
+        if (v != (int) v)
+            throw new DbException(ops[a] + " of " + v + " does not fit an int");
+        return new IntField((int) v);
+    }
+
+    /** Write tup, whose group-by value hashes to hash, to its partition */
+    private void spill(Tuple tup, int hash) throws DbException {
+        if (parts == null)
+            parts = new SpillFile[PARTITIONS];
+        int p = (hash >>> (32 - PARTITION_BITS * (level + 1))) & (PARTITIONS - 1);
+        if (parts[p] == null)
+            parts[p] = new SpillFile(tup.getTupleDesc());
+        parts[p].add(tup);
+    }
+
+    private static Object compositeKey(Field[] key) {
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and the group-by
+     *            fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        start(tup.getTupleDesc());
+        int g;
+        if (gbfields.length == 0) {
+            g = intGroup(0);
+        } else if (intGroups()) {
+            int key = ((IntField) tup.getField(gbfields[0])).getValue();
+            g = intGroup(key);
+            if (g < 0) spill(tup, GroupTable.hash(key));
+        } else {
+            Object key = objectKey(tup);
+            g = objectGroup(key);
+            if (g < 0) spill(tup, GroupTable.hash(key.hashCode()));
+        }
+        if (g >= 0) update(g, tup);
+    }
+
+    private Object objectKey(Tuple tup) {
+        if (gbfields.length == 1)
+            return tup.getField(gbfields[0]);
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++)
+            key[i] = tup.getField(gbfields[i]);
+        return compositeKey(key);
+    }
+
+    /**
+     * Merge every row of a column batch into the aggregate. Int aggregate
+     * columns and a single int group-by column are read straight from their
+     * int[], so no Field is created except one per new group and one per
+     * spilled row.
+     *
+     * @param batch
+     *            rows with the TupleDesc of the tuples this aggregator merges
+     */
+    public void mergeColumns(ColumnBatch batch) throws DbException {
+        int n = batch.size();
+        if (n == 0) return;
+        start(batch.getTupleDesc());
+        //先把每行的group编号求出来（-1表示溢出到磁盘），再逐个聚合按列累加
+        if (rowGroups == null || rowGroups.length < n)
+            rowGroups = new int[batch.capacity()];
+        int[] groups = rowGroups;
+        if (gbfields.length == 0) {
+            int g = intGroup(0);
+            Arrays.fill(groups, 0, n, g);
+        } else if (intGroups()) {
+            int[] keys = batch.ints(gbfields[0]);
+            for (int i = 0; i < n; i++) {
+                groups[i] = intGroup(keys[i]);
+                if (groups[i] < 0) spill(batch.getTuple(i), GroupTable.hash(keys[i]));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                Object key;
+                if (gbfields.length == 1) {
+                    key = batch.getField(gbfields[0], i);
+                } else {
+                    Field[] fields = new Field[gbfields.length];
+                    for (int j = 0; j < fields.length; j++)
+                        fields[j] = batch.getField(gbfields[j], i);
+                    key = compositeKey(fields);
+                }
+                groups[i] = objectGroup(key);
+                if (groups[i] < 0) spill(batch.getTuple(i), GroupTable.hash(key.hashCode()));
+            }
+        }
+        for (int i = 0; i < n; i++)
+            if (groups[i] >= 0) counts[groups[i]]++;
+        for (int a = 0; a < ops.length; a++) {
+            if (ops[a] == Op.COUNT) continue;
+            int[] values = batch.ints(afields[a]);
+            for (int i = 0; i < n; i++)
+                if (groups[i] >= 0) accumulate(a, groups[i], values[i]);
+        }
+    }
+
+    /** Drop all groups and remove the spill files */
+    public void clear() {
+        table.clear();
+        if (parts != null)
+            for (SpillFile f : parts)
+                if (f != null) f.delete();
+        parts = null;
+        if (results != null)
+            results.delete();
+        results = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Tuple toTuple(int g) throws DbException {
+        Tuple t = new Tuple(td);
+        int n = gbfields.length;
+        if (intGroups()) {
+            t.setField(0, new IntField(table.intKey(g)));
+        } else if (n == 1) {
+            t.setField(0, (Field) table.key(g));
+        } else if (n > 1) {
+            List<Field> key = (List<Field>) table.key(g);
+            for (int i = 0; i < n; i++)
+                t.setField(i, key.get(i));
+        }
+        for (int a = 0; a < ops.length; a++)
+            t.setField(n + a, result(a, g));
+        return t;
+    }
+
+    /**
+     * @return the result of the only group merged since the last clear(),
+     *         as returned by the iterator; used to aggregate input that is
+     *         grouped already one group at a time
+     */
+    public Tuple onlyGroup() throws DbException {
+        if (table.size() != 1 || parts != null)
+            throw new IllegalStateException("aggregator has " + table.size() + " groups in memory");
+        return toTuple(0);
+    }
+
+    /** Aggregate the spilled partitions and write all results to a file */
+    private void finish() throws DbException, TransactionAbortedException {
+        if (results != null) return;
+        results = new SpillFile(td);
+        for (int g = 0; g < table.size(); g++)
+            results.add(toTuple(g));
+        for (SpillFile part : parts) {
+            if (part == null || part.size() == 0) continue;
+            HashAggregator sub = new HashAggregator(gbfields, gbtypes, afields, ops);
+            sub.memoryBudget = memoryBudget;
+            sub.level = level + 1;
+            SpillFile.Reader r = part.reader();
+            Tuple t;
+            while ((t = r.next()) != null)
+                sub.mergeTupleIntoGroup(t);
+            r.close();
+            OpIterator it = sub.iterator();
+            it.open();
+            while (it.hasNext())
+                results.add(it.next());
+            it.close();
+            sub.clear();
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results, the groups kept in
+     * memory in order of first appearance and then those that were spilled.
+     *
+     * @return a OpIterator whose tuples are the group-by values followed by
+     *         one value per aggregate, in the order given to the constructor
+     */
+    public OpIterator iterator() {
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+            //-1表示没有打开
+            private int next = -1;
+            private transient SpillFile.Reader reader;
+            private Tuple pending;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                next = 0;
+                if (parts != null) {
+                    finish();
+                    reader = results.reader();
+                }
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (next < 0) return false;
+                if (reader == null) return next < table.size();
+                if (pending == null) pending = reader.next();
+                return pending != null;
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) throw new NoSuchElementException();
+                if (reader == null) return toTuple(next++);
+                Tuple t = pending;
+                pending = null;
+                return t;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override
+            public void close() {
+                next = -1;
+                if (reader != null) reader.close();
+                reader = null;
+                pending = null;
+            }
+        };
+    }
+}
@@ -51,31 +51,242 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
+    /** Default number of bytes of build tuples kept in memory, see setMemoryBudget() */
+    public final static int MEMORY_BUDGET = 4 << 20;
+    /** Once the build side overflows memory, both inputs are split into this many partitions */
+    public final static int PARTITION_BITS = 4;
+    public final static int PARTITIONS = 1 << PARTITION_BITS;
+    //同HashAggregator：第level层取哈希的第level组PARTITION_BITS位，用完之后只能超出预算
+    private static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    private int memoryBudget = MEMORY_BUDGET;
+    private int level = 0;
+    //map里元组的个数和按TupleDesc.getSize()算的字节数
+    private int mapSize = 0;
+    private long mapBytes = 0;
+    private int tupleBytes;
+
+    //两边的孩子都按批读取，build/probe中[pos, size)是还没用过的元组
+    private final TupleBatch build = new TupleBatch();
+    private final TupleBatch probe = new TupleBatch();
+    private int buildPos = 0, probePos = 0;
+    //两边的连接字段都是INT时，map以int为key，child2按列读取，只有匹配的行才生成Tuple
+    private boolean intKeys;
+    private final IntHashMap<ArrayList<Tuple>> intMap = new IntHashMap<ArrayList<Tuple>>();
+    transient private ColumnBatch probeColumns;
+
+    //build端放不下时两边各自的分区文件；分区0尽量留在内存里（hybrid），
+    //residentSpilled表示分区0也放不下、同样写到了磁盘
+    transient private SpillFile[] buildParts, probeParts;
+    private boolean residentSpilled;
+    //child2读完之后，磁盘上的分区逐个交给下一层的join，part是正在连接的分区
+    private boolean probed;
+    private int part = -1;
+    transient private HashEquiJoin sub;
+    private final TupleBatch subOut = new TupleBatch();
+    private int subPos = 0;
+
+    /**
+     * Set how many bytes of child1 tuples, as given by
+     * {@link TupleDesc#getSize()}, are kept in memory. When child1 has more,
+     * both children are partitioned by the hash of the join field into temp
+     * files, and each pair of partitions is joined by a new join that
+     * partitions them again on the next bits of the hash if they are still
+     * too big, so each child is still read only once.
+     */
+    public void setMemoryBudget(int bytes) {
+        this.memoryBudget = Math.max(1, bytes);
+    }
+
+    /**
+     * Estimate the cost of the join with the default memory budget, in the
+     * units of {@link JoinOptimizer#estimateJoinCost}: one scan of each
+     * child and one map operation per tuple, and when child1 does not fit
+     * in MEMORY_BUDGET, writing both children to partitions and reading
+     * them back.
+     *
+     * @param tupleSize1 the size in bytes of the tuples of child1
+     */
+    public static double estimateCost(int card1, int card2, double cost1, double cost2, int tupleSize1) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if ((long) card1 * tupleSize1 > MEMORY_BUDGET)
+            cost += 2 * (cost1 + cost2);
+        return cost;
+    }
+
+    private Field key1(Tuple t) {
+        return t.getField(pred.getField1());
+    }
+
+    private int partition(int hash) {
+        //用乘法哈希的高位分区，低位留给分区内的map
+        return ((hash * 0x9E3779B9) >>> (32 - PARTITION_BITS * (level + 1))) & (PARTITIONS - 1);
+    }
+
+    private int partition(Field key) {
+        return partition(intKeys ? ((IntField) key).getValue() : key.hashCode());
+    }
+
+    /** @return true if tuples of partition p are joined later from disk */
+    private boolean onDisk(int p) {
+        return buildParts != null && (p != 0 || residentSpilled);
+    }
+
+    private ArrayList<Tuple> lookup(Field key) {
+        return intKeys ? intMap.get(((IntField) key).getValue()) : map.get(key);
+    }
+
+    private void addToMap(Tuple t) {
+        Field key = key1(t);
+        ArrayList<Tuple> list = lookup(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            if (intKeys)
+                intMap.put(((IntField) key).getValue(), list);
+            else
+                map.put(key, list);
+        }
+        list.add(t);
+        mapSize++;
+        mapBytes += tupleBytes;
+    }
+
+    private List<Tuple> clearMap() {
+        List<Tuple> all = new ArrayList<Tuple>(mapSize);
+        for (ArrayList<Tuple> l : map.values())
+            all.addAll(l);
+        for (ArrayList<Tuple> l : intMap.values())
+            all.addAll(l);
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+        intMap.clear();
+        mapSize = 0;
+        mapBytes = 0;
+        return all;
+    }
+
+    /**
+     * Reads all of child1 into the map. When the map outgrows the memory
+     * budget, the tuples outside partition 0 go to disk, and if partition 0
+     * alone is still too big it follows them. Once all bits of the hash are
+     * used, tuples with the same hash cannot be split and stay in memory.
+     */
+    private void buildFromChild() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (buildPos == build.size()) {
+                buildPos = 0;
+                if (child1.nextBatch(build) == 0)
+                    break;
+            }
+            t1 = build.get(buildPos++);
+            if (buildParts != null) {
+                int p = partition(key1(t1));
+                if (onDisk(p)) {
+                    buildParts[p].add(t1);
+                    continue;
+                }
+            }
+            addToMap(t1);
+            if (mapBytes > memoryBudget && level < MAX_LEVEL)
+                spill();
+        }
+    }
+
+    private void spill() throws DbException {
+        if (buildParts == null) {
+            buildParts = new SpillFile[PARTITIONS];
+            probeParts = new SpillFile[PARTITIONS];
+            for (int p = 0; p < PARTITIONS; p++) {
+                buildParts[p] = new SpillFile(child1.getTupleDesc());
+                probeParts[p] = new SpillFile(child2.getTupleDesc());
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+        } else {
+            residentSpilled = true;
+        }
+        // map里的元组只能是分区0的，或者刚开始分区时的全部元组
+        for (Tuple t : clearMap()) {
+            int p = partition(key1(t));
+            if (onDisk(p))
+                buildParts[p].add(t);
+            else
+                addToMap(t);
+        }
+        if (mapBytes > memoryBudget)
+            spill();
+    }
+
+    /**
+     * Moves on to the next partition on disk with tuples on both sides, and
+     * opens a join of its build and probe files one level down.
+     *
+     * @return false if all partitions are done
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        closeSub();
+        while (buildParts != null && ++part < PARTITIONS) {
+            if (onDisk(part) && buildParts[part].size() > 0 && probeParts[part].size() > 0) {
+                sub = new HashEquiJoin(pred, buildParts[part].scan(), probeParts[part].scan());
+                sub.memoryBudget = memoryBudget;
+                sub.level = level + 1;
+                sub.open();
                 return true;
+            }
         }
-        return cnt > 0;
+        return false;
+    }
 
+    /** @return the next joined tuple of the partitions on disk, or null if all are done */
+    private Tuple nextSpilled() throws DbException, TransactionAbortedException {
+        while (subPos == subOut.size()) {
+            subPos = 0;
+            if ((sub == null || sub.nextBatch(subOut) == 0) && !nextPartition())
+                return null;
+        }
+        return subOut.get(subPos++);
+    }
+
+    private void closeSub() {
+        if (sub == null)
+            return;
+        sub.close();
+        sub = null;
+        //这个分区已经连接完，文件不用等到reset()再删
+        buildParts[part].delete();
+        probeParts[part].delete();
+    }
+
+    private void reset() {
+        build.clear();
+        probe.clear();
+        if (probeColumns != null)
+            probeColumns.clear();
+        buildPos = probePos = 0;
+        listIt = null;
+        clearMap();
+        closeSub();
+        subOut.clear();
+        subPos = 0;
+        if (buildParts != null) {
+            for (int p = 0; p < PARTITIONS; p++) {
+                buildParts[p].delete();
+                probeParts[p].delete();
+            }
+        }
+        buildParts = probeParts = null;
+        residentSpilled = false;
+        probed = false;
+        part = -1;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        probeColumns = intKeys ? new ColumnBatch(child2.getTupleDesc()) : null;
+        tupleBytes = child1.getTupleDesc().getSize();
+        reset();
+        buildFromChild();
         super.open();
     }
 
@@ -85,13 +296,14 @@ public class HashEquiJoin extends Operator {
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        reset();
+        buildFromChild();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -131,32 +343,80 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (listIt == null || !listIt.hasNext()) {
+            if (!nextProbe())
+                return nextSpilled();
         }
+        return processList();
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    @Override
+    protected void fetchBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        while (!batch.isFull()) {
+            if (listIt != null && listIt.hasNext())
+                batch.add(processList());
+            else if (!nextProbe())
+                break;
         }
+        Tuple t;
+        while (!batch.isFull() && (t = nextSpilled()) != null)
+            batch.add(t);
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Moves t2 to the next probe tuple of child2 and listIt to the tuples of
+     * child1 in the map it matches. Probe tuples of a partition on disk are
+     * written to its probe file instead, unless its build file is empty and
+     * they cannot match; those partitions are joined by nextSpilled() once
+     * child2 is done.
+     *
+     * @return false if child2 is done
+     */
+    private boolean nextProbe() throws TransactionAbortedException, DbException {
+        listIt = null;
+        if (probed)
+            return false;
+        if (probePos == (intKeys ? probeColumns.size() : probe.size())) {
+            probePos = 0;
+            if ((intKeys ? child2.nextColumns(probeColumns) : child2.nextBatch(probe)) == 0) {
+                // child2 is done: only the partitions on disk are left
+                probed = true;
+                clearMap();
+                return false;
+            }
         }
-
-        return null;
+        if (intKeys) {
+            int row = probePos++;
+            int key = probeColumns.getInt(pred.getField2(), row);
+            if (buildParts != null) {
+                int p = partition(key);
+                if (onDisk(p)) {
+                    if (buildParts[p].size() > 0)
+                        probeParts[p].add(probeColumns.getTuple(row));
+                    return true;
+                }
+            }
+            ArrayList<Tuple> l = intMap.get(key);
+            if (l != null) {
+                t2 = probeColumns.getTuple(row);
+                listIt = l.iterator();
+            }
+            return true;
+        }
+        t2 = probe.get(probePos++);
+        Field key = t2.getField(pred.getField2());
+        if (buildParts != null) {
+            int p = partition(key);
+            if (onDisk(p)) {
+                if (buildParts[p].size() > 0)
+                    probeParts[p].add(t2);
+                return true;
+            }
+        }
+        ArrayList<Tuple> l = map.get(key);
+        if (l != null)
+            listIt = l.iterator();
+        return true;
     }
 
     @Override
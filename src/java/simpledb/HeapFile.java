@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -17,6 +18,12 @@ public class HeapFile implements DbFile {
     //List<HeapPage> heapPages;
     File file;
     TupleDesc tupleDesc;
+    //所有page的读写都通过这一个channel，不再每次打开文件
+    final DbFileChannel channel;
+    //为true时读page直接解析内存映射的文件，不复制到byte[]
+    private volatile boolean memoryMapped;
+    //记录哪些page已满，insert直接跳到有空位的page
+    final FreeSpaceMap freeSpace;
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -25,11 +32,39 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td){
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param memoryMapped whether to parse pages straight out of a memory
+     *                     mapping of the file, see {@link #setMemoryMapped}
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped){
         // some code goes here
         //heapPages = new ArrayList<>();
         //InputStream in = new FileInputStream(f);
         this.file=f;
         this.tupleDesc=td;
+        this.channel=new DbFileChannel(f);
+        this.memoryMapped=memoryMapped;
+        this.freeSpace=new FreeSpaceMap(f,channel);
+    }
+
+    /**
+     * Turn the memory mapped read path on or off. When it is on, readPage
+     * builds each HeapPage directly from a slice of the mapped file instead
+     * of copying the page into a fresh byte[] first, which saves a copy and
+     * an allocation per page on cold scans of large tables. Pages past the
+     * end of the file are still read the normal way.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped=memoryMapped;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -72,16 +107,22 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        Page page = null;
+        HeapPage page = null;
         //System.out.println("2");
-        try(RandomAccessFile rafile = new RandomAccessFile(this.file,"r")){
-
-            int pos = pid.getPageNumber() * BufferPool.getPageSize();
-            //Database.getBufferPool();
-            byte[] pageData = new byte[BufferPool.getPageSize()];
-            rafile.seek(pos);
-            rafile.read(pageData,0,pageData.length);
-            page = new HeapPage((HeapPageId) pid,pageData);
+        try{
+            long pos = (long) pid.getPageNumber() * BufferPool.getPageSize();
+            if(memoryMapped){
+                ByteBuffer mapped = channel.map(pos,BufferPool.getPageSize());
+                if(mapped != null) page = new HeapPage((HeapPageId) pid,mapped);
+            }
+            if(page == null){
+                //文件末尾之后的page读出来是空page
+                byte[] pageData = new byte[BufferPool.getPageSize()];
+                channel.read(pos,pageData);
+                page = new HeapPage((HeapPageId) pid,pageData);
+            }
+            //顺便修正free space map的提示（例如事务中止后page被重新读入）
+            freeSpace.setFull(pid.getPageNumber(),page.getNumEmptySlots()==0);
         }
         catch(IOException e){
             e.printStackTrace();
@@ -104,10 +145,13 @@ public class HeapFile implements DbFile {
        // System.out.println(BufferPool.getPageSize());
         if(pageNo>numPages()||pageNo<0) throw new IndexOutOfBoundsException();
 
-        RandomAccessFile raf=new RandomAccessFile(file,"rw");
-        raf.seek(pageNo*BufferPool.getPageSize());
-        raf.write(page.getPageData());
-        raf.close();
+        channel.write((long) pageNo*BufferPool.getPageSize(),page.getPageData());
+        freeSpace.pageWritten(pageNo,((HeapPage) page).getNumEmptySlots()==0);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        freeSpace.close();
     }
 
     /**
@@ -115,7 +159,12 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil(this.file.length() / BufferPool.getPageSize());
+        //长度来自已经打开的channel，不需要每次都按路径stat文件
+        try {
+            return (int) (channel.length() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -137,18 +186,22 @@ public class HeapFile implements DbFile {
         //return null;
         //System.out.println("Heapfile.insert");
         ArrayList<Page> modifiedPages = new ArrayList<>();
-        for(int i=0;i<numPages();i++){
+        int numPages=numPages();
+        //只访问free space map认为没满的page，而不是从第0页开始逐页加锁检查
+        for(int i=freeSpace.nextNotFull(0);i<numPages;i=freeSpace.nextNotFull(i+1)){
             HeapPage nowPage=(HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(getId(),i),Permissions.READ_WRITE);
             if(nowPage.getNumEmptySlots()!=0) {
                 nowPage.insertTuple(t);//t的RecordId由该函数内部更新
+                freeSpace.setFull(i,nowPage.getNumEmptySlots()==0);
                 modifiedPages.add(nowPage);
                 //System.out.println("exist free page");
                 return modifiedPages;
             }
+            freeSpace.setFull(i,true);
         }
         //System.out.println("no pages is free");
         //if no pages are free,add page first
-        HeapPage nowPage = ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(),numPages()),Permissions.READ_WRITE));
+        HeapPage nowPage = ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(),numPages),Permissions.READ_WRITE));
         nowPage.insertTuple(t);
         modifiedPages.add(nowPage);
         this.writePage(nowPage);
@@ -176,6 +229,7 @@ public class HeapFile implements DbFile {
         ArrayList<Page> modifiedPages=new ArrayList<>();
         HeapPage nowPage=(HeapPage)Database.getBufferPool().getPage(tid,t.getRecordId().getPageId(),Permissions.READ_WRITE);
         nowPage.deleteTuple(t);//Exception will be throw out in this func
+        freeSpace.setFull(nowPage.getId().getPageNumber(),false);
         modifiedPages.add(nowPage);
         return modifiedPages;
         // not necessary for lab1
@@ -188,90 +242,3 @@ public class HeapFile implements DbFile {
     }
 
 }
-/**
- * Helper class that implements the Java Iterator for tuples on a HeapFile.
- * By lyy
- */
-class HeapFileIterator extends AbstractDbFileIterator {
-
-    Iterator<Tuple> it = null;
-    HeapPage curp = null;
-
-    TransactionId tid;
-    HeapFile heapFile;
-
-    /**
-     * Constructor for this iterator
-     * @param f - the BTreeFile containing the tuples
-     * @param tid - the transaction id
-     */
-    public HeapFileIterator(HeapFile f, TransactionId tid) {
-        this.heapFile = f;
-        this.tid = tid;
-    }
-
-    /**
-     * Open this iterator by getting an iterator on the first page,
-     * Remind that the heapPages in heapfile are arranged in natural order,
-     * which will be accessed in ascending order of natural number.
-     * (I'm not sure if it is the expected implementation of HeapfileIterator.
-     * As Heap is able to be stored in an array, which can be added
-     * heap-adjustment-method later on, I think it's fine for now.)
-     * --By lyy, 20220316
-     */
-    public void open() throws DbException, TransactionAbortedException {
-        curp = (HeapPage) Database.getBufferPool().getPage(tid,
-                            new HeapPageId(this.heapFile.getId(), 0),
-                            Permissions.READ_ONLY);
-        it = curp.iterator();
-    }
-
-    /**
-     * Read the next tuple either from the current page if it has more tuples or
-     * from the next page by following the right sibling pointer.
-     *
-     * @return the next tuple, or null if none exists
-     */
-    @Override
-    protected Tuple readNext() throws TransactionAbortedException, DbException {
-        //1.the current page has not been finished, nothing need to be done.
-        //2.the current page has been finished, read next page
-        if (it != null && !it.hasNext())
-            it = null;
-        //use while to avoid some Page don't have any tuple
-        //read next page until done
-        while (it == null && curp != null) {
-            int nextPageNo = curp.getId().getPageNumber() + 1;
-            //System.out.printf("%d,%d\n",nextPageNo,this.heapFile.numPages());
-            if(nextPageNo >= this.heapFile.numPages()) {
-                curp = null;//finished all pages
-            }
-            else {
-                curp = (HeapPage) Database.getBufferPool().getPage(tid,
-                        new HeapPageId(this.heapFile.getId(), nextPageNo),
-                        Permissions.READ_ONLY);//read next page
-                it = curp.iterator();
-                if (!it.hasNext())
-                    it = null;
-            }
-        }
-        if (it == null)
-            return null;
-        return it.next();
-    }
-    /**
-     * rewind this iterator back to the beginning of the tuples
-     */
-    public void rewind() throws DbException, TransactionAbortedException {
-        close();
-        open();
-    }
-    /**
-     * close the iterator
-     */
-    public void close() {
-        super.close();
-        it = null;
-        curp = null;
-    }
-}
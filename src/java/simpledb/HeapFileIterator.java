@@ -0,0 +1,107 @@
+package simpledb;
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a HeapFile.
+ * By lyy
+ */
+class HeapFileIterator extends AbstractDbFileIterator {
+
+    //当前page和其中下一个要读的slot，行接口和列接口共用这个位置
+    HeapPage curp = null;
+    int slot = 0;
+
+    TransactionId tid;
+    HeapFile heapFile;
+
+    /**
+     * Constructor for this iterator
+     * @param f - the BTreeFile containing the tuples
+     * @param tid - the transaction id
+     */
+    public HeapFileIterator(HeapFile f, TransactionId tid) {
+        this.heapFile = f;
+        this.tid = tid;
+    }
+
+    /**
+     * Open this iterator by getting the first page,
+     * Remind that the heapPages in heapfile are arranged in natural order,
+     * which will be accessed in ascending order of natural number.
+     * (I'm not sure if it is the expected implementation of HeapfileIterator.
+     * As Heap is able to be stored in an array, which can be added
+     * heap-adjustment-method later on, I think it's fine for now.)
+     * --By lyy, 20220316
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        curp = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(this.heapFile.getId(), 0),
+                            Permissions.READ_ONLY);
+        slot = 0;
+    }
+
+    /**
+     * Move to the next page once the current one is done.
+     *
+     * @return false if all pages are done
+     */
+    private boolean advance() throws TransactionAbortedException, DbException {
+        while (curp != null && slot >= curp.numSlots) {
+            int nextPageNo = curp.getId().getPageNumber() + 1;
+            if(nextPageNo >= this.heapFile.numPages()) {
+                curp = null;//finished all pages
+            }
+            else {
+                curp = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(this.heapFile.getId(), nextPageNo),
+                        Permissions.READ_ONLY);//read next page
+                slot = 0;
+            }
+        }
+        return curp != null;
+    }
+
+    /**
+     * Read the next tuple either from the current page if it has more tuples or
+     * from the next page.
+     *
+     * @return the next tuple, or null if none exists
+     */
+    @Override
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        //use while to skip empty slots and pages without any tuple
+        while (advance()) {
+            Tuple t = curp.tupleAt(slot++);
+            if (t != null) return t;
+        }
+        return null;
+    }
+
+    /**
+     * Decode the next tuples into batch page by page, see
+     * {@link HeapPage#decodeColumns}.
+     */
+    public int nextColumns(ColumnBatch batch) throws TransactionAbortedException, DbException {
+        batch.clear();
+        Tuple t = takeReadAhead();
+        if (t != null) batch.addTuple(t);
+        while (!batch.isFull() && advance())
+            slot = curp.decodeColumns(batch, slot);
+        return batch.size();
+    }
+
+    /**
+     * rewind this iterator back to the beginning of the tuples
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+    /**
+     * close the iterator
+     */
+    public void close() {
+        super.close();
+        curp = null;
+        slot = 0;
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.awt.*;
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -21,8 +22,11 @@ public class HeapPage implements Page {
     final Tuple[] tuples;
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    //before image；构造时与source共用同一份字节，两者都不会被原地修改
+    volatile byte[] oldData;
+    //page的原始字节；元组第一次被用到时才从这里解析，page被修改后置为null
+    private volatile ByteBuffer source;
+    private volatile boolean parsed;
 
     private TransactionId dirty_tid;
     private boolean dirty;
@@ -43,29 +47,37 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the bytes of the page, e.g. a
+     * read-only slice of a memory mapped HeapFile. The bytes are copied once,
+     * since the mapped region changes whenever the page is written back, and
+     * the copy serves both as the before image and as the source tuples are
+     * parsed from.
+     * <p>
+     * Only the header is read here. Tuples are parsed the first time they are
+     * needed, and {@link #decodeColumns} reads the buffer without parsing
+     * them at all.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = data.duplicate();
+        buf.get(bytes, 0, Math.min(bytes.length, buf.remaining()));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-       // System.out.print(header.length+",");
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(bytes, 0, header, 0, header.length);
+
         tuples = new Tuple[numSlots];
-       // System.out.println(numSlots);
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-       //System.out.print("7");
-        setBeforeImage();
+        source = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        oldData = bytes;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -96,12 +108,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldData);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -111,10 +118,7 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
         oldData = getPageData().clone();
-        }
     }
 
     /**
@@ -126,19 +130,85 @@ public class HeapPage implements Page {
    // throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * Parse the tuples of this page out of source, once.
+     */
+    private void parse() {
+        if (parsed) return;
+        synchronized (this) {
+            if (parsed) return;
+            ByteBuffer buf = source.duplicate();
+            buf.position(header.length);
+            try{
+                // allocate and read the actual records of this page
+                for (int i=0; i<tuples.length; i++)
+                    tuples[i] = readNextTuple(buf,i);
+            }catch(NoSuchElementException e){
+                e.printStackTrace();
+            }
+            parsed = true;
+        }
+    }
+
+    /** Parse the tuples and stop decoding from source, before a change to the page */
+    private void modify() {
+        parse();
+        source = null;
+    }
+
+    /**
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    Tuple tupleAt(int i) {
+        if (!isSlotUsed(i)) return null;
+        parse();
+        return tuples[i];
+    }
+
+    /**
+     * Decode the tuples in slots from fromSlot on into batch, a column at a
+     * time, until the batch is full. Values are read straight from the bytes
+     * of the page when it has not been modified, without creating any Tuple
+     * or Field.
+     *
+     * @return the slot to continue from, numSlots when the page is done
+     */
+    int decodeColumns(ColumnBatch batch, int fromSlot) {
+        ByteBuffer src = source;
+        int tupleSize = td.getSize();
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) continue;
+            if (src == null) {
+                batch.addTuple(tuples[slot]);
+                continue;
+            }
+            int row = batch.addRow();
+            batch.setRecordId(row, pid, slot);
+            int pos = header.length + slot * tupleSize;
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE)
+                    batch.setInt(j, row, src.getInt(pos));
+                else
+                    batch.setString(j, row, src, pos + 4, src.getInt(pos));
+                pos += type.getLen();
+            }
+        }
+        return slot;
+    }
+
     /**
      * Suck up tuples from the source file.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
+    private Tuple readNextTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
+        // if associated bit is not set, skip forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+            try {
+                buf.position(buf.position() + td.getSize());
+            } catch (IllegalArgumentException e) {
+                throw new NoSuchElementException("error reading empty tuple");
             }
             return null;
         }
@@ -149,10 +219,10 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(buf);
                 t.setField(j, f);
             }
-        } catch (java.text.ParseException e) {
+        } catch (java.text.ParseException | java.nio.BufferUnderflowException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
@@ -172,6 +242,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        parse();
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -256,6 +327,7 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        modify();
         int tupNo=t.getRecordId().getTupleNumber();
         if(!this.pid.equals(t.getRecordId().getPageId())) throw new DbException("this tuple is not on this page");
         if(tuples[tupNo]==null) throw new DbException("this tuple is not on this page");
@@ -276,6 +348,7 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         if(this.getNumEmptySlots()==0) throw new DbException("the page is full");
+        modify();
         if(!td.equals(t.getTupleDesc())) throw new DbException("tupledesc is dismatch");
         for(int i=0;i<numSlots;i++){
             if(!isSlotUsed(i)){
@@ -356,6 +429,7 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        parse();
         List<Tuple> temp_tuples = new LinkedList<>();
         for(int i = 0; i < this.tuples.length; i++){
             if(isSlotUsed(i)) temp_tuples.add(this.tuples[i]);
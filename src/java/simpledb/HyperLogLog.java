@@ -0,0 +1,70 @@
+package simpledb;
+
+/**
+ * HyperLogLog estimates the number of distinct values added to it in
+ * constant space: 2^P one-byte registers, each keeping the longest run of
+ * leading zeros seen among the hashes that fall into it. The standard error
+ * is about 1.04 / sqrt(2^P), 1.6% here; small counts are corrected with
+ * linear counting over the empty registers, so they are nearly exact.
+ */
+public class HyperLogLog {
+    private static final int P = 12;
+    private static final int M = 1 << P;
+
+    private final byte[] registers = new byte[M];
+
+    /** @return a well mixed 64 bit hash of x (the MurmurHash3 finalizer) */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    private void addHash(long h) {
+        int r = (int) (h >>> (Long.SIZE - P));
+        //剩下的位里第一个1的位置；低位补1，全0时也有界
+        int rank = Long.numberOfLeadingZeros((h << P) | (1L << (P - 1))) + 1;
+        if (rank > registers[r])
+            registers[r] = (byte) rank;
+    }
+
+    public void add(int v) {
+        addHash(mix(v));
+    }
+
+    public void add(String s) {
+        //FNV-1a，比String.hashCode的32位分得开
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        addHash(mix(h));
+    }
+
+    /** Add all values added to other, as if they had been added to this sketch */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++)
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / M);
+        double e = alpha * M * M / sum;
+        if (e <= 2.5 * M && zeros > 0)
+            e = M * Math.log((double) M / zeros);
+        return Math.round(e);
+    }
+}
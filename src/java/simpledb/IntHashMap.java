@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * IntHashMap is a hash map from primitive int keys to non-null values, with
+ * open addressing and linear probing, so looking up an int column value does
+ * not box it into an Integer or a Field.
+ */
+public class IntHashMap<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntHashMap() {
+        this(16);
+    }
+
+    public IntHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[cap];
+        values = new Object[cap];
+    }
+
+    private static int hash(int key) {
+        //打散低位，连续的key也能均匀分布
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (values[i] != null && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /** @return the value of key, or null if there is none */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[slot(key)];
+    }
+
+    /**
+     * Map key to value, replacing the old value if any.
+     * @return the old value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) throw new IllegalArgumentException("null value");
+        int i = slot(key);
+        V old = (V) values[i];
+        keys[i] = key;
+        values[i] = value;
+        if (old == null && ++size * 2 > keys.length) grow();
+        return old;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null) continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    /** @return the values of the map, in no particular order */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> l = new ArrayList<V>(size);
+        for (Object v : values)
+            if (v != null) l.add((V) v);
+        return l;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+}
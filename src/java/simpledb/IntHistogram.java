@@ -1,27 +1,85 @@
 package simpledb;
 
-/** A class to represent a fixed-width histogram over a single integer-based field.
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/** A class to represent an equi-depth histogram over a single integer-based field.
+ * <p>
+ * The values are summarized in one pass in constant space: their count and
+ * bounds, a reservoir sample of at most SAMPLE_PER_BUCKET values per bucket
+ * and a {@link HyperLogLog} sketch of the distinct values. The first time the
+ * histogram is used after values were added, the sample is sorted and split
+ * into the most common values, each estimated on its own, and up to "buckets"
+ * buckets over the other values that hold about the same number of rows
+ * each. A bucket keeps its bounds, its fraction of the rows and its number of
+ * distinct values; once the sample no longer holds every value, the distinct
+ * counts are scaled up from the sample to the sketch.
  */
 public class IntHistogram {
+    /** Values sampled per bucket, as in PostgreSQL's ANALYZE */
+    static final int SAMPLE_PER_BUCKET = 300;
+    /** Upper bound on the number of values sampled */
+    static final int MAX_SAMPLE = 1 << 18;
+
+    private final int buckets;
+    private final int capacity;
+    private int[] sample = new int[16];
+    private final HyperLogLog distinct = new HyperLogLog();
+    private final Random random = new Random(0x5EED);
+    private long count;
+    //加进来的值只是这么多行的样本，见scaleTo()
+    private long population;
+    private int minSeen = Integer.MAX_VALUE, maxSeen = Integer.MIN_VALUE;
+    //Algorithm L：下一个替换进样本的值的序号，以及当前的W
+    private long next;
+    private double w;
+
+    //build()的结果：按值排好的常见值及频率，其余值的等深桶，和对应的前缀和
+    private boolean built;
+    private boolean complete;
+    private long ndv;
+    private int[] mcvs;
+    private double[] mcvFreqs, mcvCum;
+    private int[] lows, highs;
+    private double[] fracs, fracCum, ndvs;
 
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
+     *
      * @param buckets The number of buckets to split the input value into.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        //桶的边界由加进来的值决定，不需要事先知道范围
+        this(buckets);
+    }
+
+    /**
+     * Create a new IntHistogram over values whose range is not known in
+     * advance, so that it can be built in the same scan that finds the range.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     */
+    public IntHistogram(int buckets) {
+        this.buckets = Math.max(1, buckets);
+        this.capacity = (int) Math.min((long) this.buckets * SAMPLE_PER_BUCKET, MAX_SAMPLE);
+    }
+
+    private long skip() {
+        return (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - w)) + 1;
     }
 
     /**
@@ -30,14 +88,172 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        built = false;
+        distinct.add(v);
+        if (v < minSeen) minSeen = v;
+        if (v > maxSeen) maxSeen = v;
+        if (count < capacity) {
+            if (count == sample.length)
+                sample = Arrays.copyOf(sample, (int) Math.min(capacity, count * 2));
+            sample[(int) count] = v;
+            if (count == capacity - 1) {
+                w = Math.exp(Math.log(1 - random.nextDouble()) / capacity);
+                next = count + skip();
+            }
+        } else if (count == next) {
+            //样本满了以后，第i个值以capacity/i的概率替换样本里随机的一个
+            sample[random.nextInt(capacity)] = v;
+            w *= Math.exp(Math.log(1 - random.nextDouble()) / capacity);
+            next += skip();
+        }
+        count++;
+    }
+
+    /** Sort the sample into most common values and equi-depth buckets */
+    private void build() {
+        if (built)
+            return;
+        built = true;
+        int s = (int) Math.min(count, capacity);
+        int[] v = Arrays.copyOf(sample, s);
+        Arrays.sort(v);
+        int sampleNdv = 0;
+        int numMcvs = 0;
+        //常见值：样本里至少出现两次，且至少占满一个桶的深度
+        int[] runCounts = new int[s];
+        for (int i = 0; i < s; ) {
+            int j = i;
+            while (j < s && v[j] == v[i])
+                j++;
+            runCounts[sampleNdv++] = j - i;
+            if (j - i >= 2 && (long) (j - i) * buckets >= s)
+                numMcvs++;
+            i = j;
+        }
+        mcvs = new int[numMcvs];
+        mcvFreqs = new double[numMcvs];
+        int[] rest = new int[s];
+        int restSize = 0, restNdv = 0;
+        for (int i = 0, r = 0, m = 0; i < s; i += runCounts[r++]) {
+            int c = runCounts[r];
+            if (c >= 2 && (long) c * buckets >= s) {
+                mcvs[m] = v[i];
+                mcvFreqs[m++] = (double) c / s;
+            } else {
+                System.arraycopy(v, i, rest, restSize, c);
+                restSize += c;
+                restNdv++;
+            }
+        }
+        long rows = Math.max(count, population);
+        complete = count <= capacity && rows == count;
+        if (complete)
+            ndv = sampleNdv;
+        else if (rows == count)
+            ndv = Math.min(count, Math.max(sampleNdv, distinct.estimate()));
+        else {
+            //只读了一部分行：用样本里只出现一次的值数按Duj1估计全表的NDV
+            int f1 = 0;
+            for (int r = 0; r < sampleNdv; r++)
+                if (runCounts[r] == 1)
+                    f1++;
+            double duj1 = (double) s * sampleNdv / (s - f1 + (double) f1 * s / rows);
+            ndv = Math.min(rows, Math.max(Math.max(sampleNdv, distinct.estimate()), Math.round(duj1)));
+        }
+
+        //其余的值按行数等分成桶，同一个值不跨桶
+        int nb = Math.min(buckets, restNdv);
+        lows = new int[nb];
+        highs = new int[nb];
+        fracs = new double[nb];
+        ndvs = new double[nb];
+        double scale = complete || restNdv == 0 ? 1.0 : Math.max(1.0, (double) (ndv - numMcvs) / restNdv);
+        int b = 0;
+        for (int i = 0; i < restSize && b < nb; b++) {
+            long target = (long) restSize * (b + 1) / nb;
+            int start = i, d = 0;
+            do {
+                int j = i;
+                while (j < restSize && rest[j] == rest[i])
+                    j++;
+                i = j;
+                d++;
+            } while (i < restSize && (i < target || b == nb - 1));
+            lows[b] = rest[start];
+            highs[b] = rest[i - 1];
+            fracs[b] = (double) (i - start) / s;
+            ndvs[b] = Math.max(d, Math.min(d * scale, (double) highs[b] - lows[b] + 1));
+        }
+        if (b < nb) {
+            lows = Arrays.copyOf(lows, b);
+            highs = Arrays.copyOf(highs, b);
+            fracs = Arrays.copyOf(fracs, b);
+            ndvs = Arrays.copyOf(ndvs, b);
+        }
+        mcvCum = cumulative(mcvFreqs);
+        fracCum = cumulative(fracs);
+    }
+
+    /** @return c with c[i] the sum of a[0..i-1] */
+    private static double[] cumulative(double[] a) {
+        double[] c = new double[a.length + 1];
+        for (int i = 0; i < a.length; i++)
+            c[i + 1] = c[i] + a[i];
+        return c;
+    }
+
+    /** @return the index of the last bucket whose low bound is at most v, or -1 */
+    private int bucketOf(int v) {
+        int i = Arrays.binarySearch(lows, v);
+        if (i < 0)
+            i = -i - 2;
+        //同一个值不跨桶，所以找到的就是唯一的
+        return i;
+    }
+
+    /** @return the fraction of the values equal to v */
+    private double equal(int v) {
+        if (count == 0 || v < minSeen || v > maxSeen)
+            return 0;
+        int m = Arrays.binarySearch(mcvs, v);
+        if (m >= 0)
+            return mcvFreqs[m];
+        int b = bucketOf(v);
+        if (b >= 0 && v <= highs[b])
+            return fracs[b] / ndvs[b];
+        //样本完整时桶之间的空隙里没有值；否则按相邻桶里一个值的频率估计
+        if (complete || lows.length == 0)
+            return 0;
+        b = Math.max(b, 0);
+        return fracs[b] / ndvs[b];
+    }
+
+    /** @return the fraction of the values less than v */
+    private double below(int v) {
+        if (count == 0 || v <= minSeen)
+            return 0;
+        if (v > maxSeen)
+            return 1;
+        int m = Arrays.binarySearch(mcvs, v);
+        double f = mcvCum[m >= 0 ? m : -m - 1];
+        int b = bucketOf(v);
+        if (b >= 0) {
+            f += fracCum[b];
+            //桶内按值均匀分布插值
+            if (v > highs[b])
+                f += fracs[b];
+            else
+                f += fracs[b] * ((double) v - lows[b]) / ((double) highs[b] - lows[b] + 1);
+        }
+        return f;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
@@ -45,13 +261,40 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        build();
+        if (count == 0)
+            return op == Predicate.Op.NOT_EQUALS ? 1.0 : 0.0;
+        double sel;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            sel = equal(v);
+            break;
+        case NOT_EQUALS:
+            sel = 1 - equal(v);
+            break;
+        case LESS_THAN:
+            sel = below(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            sel = below(v) + equal(v);
+            break;
+        case GREATER_THAN:
+            sel = 1 - below(v) - equal(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            sel = 1 - below(v);
+            break;
+        default:
+            sel = 1.0;
+        }
+        return Math.max(0.0, Math.min(1.0, sel));
     }
-    
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
@@ -59,14 +302,64 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        //随便取一个值做等值比较，平均选中1/NDV
+        build();
+        return ndv == 0 ? 1.0 : 1.0 / ndv;
+    }
+
+    /**
+     * Tell the histogram that the values added so far are a sample of rows
+     * values, so that the number of distinct values is estimated for all of
+     * them rather than for the sample.
+     */
+    public void scaleTo(long rows) {
+        built = false;
+        population = rows;
+    }
+
+    /** @return the estimated number of distinct values, of all rows if
+        scaleTo() was called */
+    public long distinctValues() {
+        build();
+        return ndv;
+    }
+
+    /** @return the most common values, in ascending order, with the fraction
+        of the values equal to each */
+    public Map<Field, Double> mostCommonValues() {
+        build();
+        Map<Field, Double> m = new LinkedHashMap<Field, Double>();
+        for (int i = 0; i < mcvs.length; i++)
+            m.put(new IntField(mcvs[i]), mcvFreqs[i]);
+        return m;
+    }
+
+    /** @return a few values that stand for the distribution: the most common
+        values and the middle of each bucket, with the fraction of the values
+        each stands for */
+    public Map<Field, Double> points() {
+        build();
+        Map<Field, Double> m = mostCommonValues();
+        for (int b = 0; b < lows.length; b++) {
+            Field mid = new IntField((int) (((long) lows[b] + highs[b]) / 2));
+            Double f = m.get(mid);
+            m.put(mid, f == null ? fracs[b] : f + fracs[b]);
+        }
+        return m;
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
         // some code goes here
-        return null;
+        build();
+        StringBuilder sb = new StringBuilder("IntHistogram(" + count + " values, " + ndv + " distinct, mcv {");
+        for (int i = 0; i < mcvs.length; i++)
+            sb.append(i == 0 ? "" : ", ").append(mcvs[i]).append(": ").append(String.format("%.4f", mcvFreqs[i]));
+        sb.append("}, buckets");
+        for (int b = 0; b < lows.length; b++)
+            sb.append(String.format(" [%d, %d]: %.4f/%.0f", lows[b], highs[b], fracs[b], ndvs[b]));
+        return sb.append(")").toString();
     }
 }
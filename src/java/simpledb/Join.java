@@ -3,7 +3,16 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, for any
+ * JoinPredicate, as a nested-loop join in one of two modes:
+ * <ul>
+ * <li>block nested-loop (the default): a block of outer tuples, a few pages
+ * worth, is buffered, and the inner child is scanned once per block instead
+ * of once per outer tuple;</li>
+ * <li>index nested-loop: when the inner relation is a BTreeFile keyed on the
+ * inner join field, each outer tuple probes the index with
+ * {@link BTreeFile#indexIterator} instead of scanning the inner child.</li>
+ * </ul>
  */
 public class Join extends Operator {
 
@@ -12,7 +21,23 @@ public class Join extends Operator {
     private OpIterator child2;
     private final JoinPredicate joinPredicate;
     private TupleDesc td;
+
+    /** Default number of pages of outer tuples buffered per block */
+    public static final int DEFAULT_BLOCK_PAGES = 8;
+    private int blockPages = DEFAULT_BLOCK_PAGES;
+
+    //块嵌套循环：当前块的外表元组，内表的当前批次，正在与块比较的内表元组t2及块中的位置
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    private final TupleBatch outer = new TupleBatch();
+    private final TupleBatch inner = new TupleBatch();
+    private int outerPos = 0, innerPos = 0, blockPos = 0;
+    private Tuple tuple2;
+
+    //索引嵌套循环：内表的B+树索引，以及当前外表元组tuple1在索引上的探测
+    private final BTreeFile index;
+    private final TransactionId tid;
     private Tuple tuple1;
+    private transient DbFileIterator probe;
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -29,7 +54,75 @@ public class Join extends Operator {
         this.joinPredicate = p;
         this.child1 = child1;
         this.child2 = child2;
-        tuple1 = null;
+        this.index = null;
+        this.tid = null;
+    }
+
+    /**
+     * Constructor for an index nested-loop join. Instead of scanning child2,
+     * each outer tuple probes index, the file of the relation child2 scans,
+     * with the join predicate turned around.
+     *
+     * @param p
+     *            The predicate to use to join the children; its field2 must
+     *            be the key field of index and its operator one of =, &lt;,
+     *            &lt;=, &gt;, &gt;=
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            A scan of the right(inner) relation, used for its TupleDesc
+     *            only; it is never opened
+     * @param index
+     *            The BTreeFile of the inner relation
+     * @param tid
+     *            The transaction the probes run as a part of
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, BTreeFile index, TransactionId tid) {
+        if (index.keyField() != p.getField2() || !isIndexable(p.getOperator()))
+            throw new IllegalArgumentException("predicate " + p + " cannot probe the index on field " + index.keyField());
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.index = index;
+        this.tid = tid;
+    }
+
+    /** @return true if a join with this operator can probe an index on the inner field */
+    public static boolean isIndexable(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /** @return how many outer tuples of tupleSize bytes fill blockPages pages */
+    static int tuplesPerBlock(int tupleSize, int blockPages) {
+        return blockPages * Math.max(1, (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1));
+    }
+
+    /**
+     * Estimate the cost of a block nested-loop join with blocks of
+     * DEFAULT_BLOCK_PAGES pages, in the units of
+     * {@link JoinOptimizer#estimateJoinCost}: one scan of the outer child,
+     * one scan of the inner child per block of outer tuples, and one
+     * predicate per pair of tuples.
+     *
+     * @param tupleSize1 the size in bytes of the outer tuples
+     */
+    public static double estimateCost(int card1, int card2, double cost1, double cost2, int tupleSize1) {
+        double blocks = Math.ceil((double) card1 / tuplesPerBlock(tupleSize1, DEFAULT_BLOCK_PAGES));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /** @return true if this join probes an index instead of scanning child2 */
+    public boolean isIndexJoin() {
+        return index != null;
+    }
+
+    /**
+     * Set how many pages of outer tuples are buffered per scan of the inner
+     * child in block nested-loop mode.
+     */
+    public void setBlockPages(int pages) {
+        this.blockPages = Math.max(1, pages);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -70,7 +163,10 @@ public class Join extends Operator {
             TransactionAbortedException {
         // some code goes here
         child1.open();
-        child2.open();
+        if (index == null)
+            child2.open();
+        td = getTupleDesc();
+        reset();
         super.open();
     }
 
@@ -79,12 +175,62 @@ public class Join extends Operator {
         super.close();
         child2.close();
         child1.close();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
-        child2.rewind();
+        if (index == null)
+            child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        block.clear();
+        outer.clear();
+        inner.clear();
+        outerPos = innerPos = blockPos = 0;
+        tuple1 = tuple2 = null;
+        if (probe != null)
+            probe.close();
+        probe = null;
+    }
+
+    /** @return the next outer tuple, or null when child1 is done */
+    private Tuple nextOuter() throws DbException, TransactionAbortedException {
+        if (outerPos == outer.size()) {
+            outerPos = 0;
+            if (child1.nextBatch(outer) == 0)
+                return null;
+        }
+        return outer.get(outerPos++);
+    }
+
+    /**
+     * Buffer the next block of outer tuples.
+     *
+     * @return false if child1 is done
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        int size = tuplesPerBlock(child1.getTupleDesc().getSize(), blockPages);
+        Tuple t;
+        while (block.size() < size && (t = nextOuter()) != null)
+            block.add(t);
+        return !block.isEmpty();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple newTuple = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for(int i=0;i<n1;i++){
+            newTuple.setField(i, t1.getField(i));
+        }
+        for(int i=0;i<t2.getTupleDesc().numFields();i++){
+            newTuple.setField(n1+i, t2.getField(i));
+        }
+        return newTuple;
     }
 
     /**
@@ -107,33 +253,70 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        return index == null ? nextBlockNestedLoop() : nextIndexNestedLoop();
+    }
+
+    private Tuple nextBlockNestedLoop() throws TransactionAbortedException, DbException {
+        if (block.isEmpty() && !loadBlock())
+            return null;
         while(true){
-            if(tuple1==null) {
-                if (child1.hasNext()) {
-                    tuple1 = child1.next();
+            if(tuple2!=null){
+                while(blockPos<block.size()){
+                    Tuple t1 = block.get(blockPos++);
+                    if(joinPredicate.filter(t1,tuple2))
+                        return merge(t1,tuple2);
                 }
-                else{
-                    break;
+                tuple2=null;
+            }
+            if(innerPos==inner.size()){
+                innerPos=0;
+                if(child2.nextBatch(inner)==0){
+                    //内表扫完一遍，换下一块外表元组
+                    if(!loadBlock())
+                        return null;
+                    child2.rewind();
+                    continue;
                 }
             }
-            Tuple t1 = tuple1;
-            while(child2.hasNext()){
-                Tuple t2 = child2.next();
-                if(joinPredicate.filter(t1,t2)){
-                    Tuple newTuple = new Tuple(getTupleDesc());
-                    for(int i=0;i<t1.getTupleDesc().numFields();i++){
-                        newTuple.setField(i, t1.getField(i));
-                    }
-                    for(int i=0;i<t2.getTupleDesc().numFields();i++){
-                        newTuple.setField(t1.getTupleDesc().numFields()+i, t2.getField(i));
-                    }
-                    return newTuple;
+            tuple2=inner.get(innerPos++);
+            blockPos=0;
+        }
+    }
+
+    private Tuple nextIndexNestedLoop() throws TransactionAbortedException, DbException {
+        while(true){
+            if(probe!=null){
+                while(probe.hasNext()){
+                    Tuple t2 = probe.next();
+                    if(joinPredicate.filter(tuple1,t2))
+                        return merge(tuple1,t2);
                 }
+                probe.close();
+                probe=null;
             }
-            child2.rewind();
-            tuple1=null;
+            tuple1=nextOuter();
+            if(tuple1==null)
+                return null;
+            //t1.f1 op t2.key 等价于 t2.key 反向op t1.f1
+            probe=index.indexIterator(tid,
+                    new IndexPredicate(reverse(joinPredicate.getOperator()), tuple1.getField(joinPredicate.getField1())));
+            probe.open();
+        }
+    }
+
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
         }
-        return null;
     }
 
     @Override
@@ -14,6 +14,37 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** Joins of more tables than this are ordered greedily, see setMaxDpTables() */
+    public static final int DEFAULT_MAX_DP_TABLES = 14;
+    private int maxDpTables = DEFAULT_MAX_DP_TABLES;
+
+    //instantiateJoin会选的连接算法
+    private static final int BLOCK_NL = 0, INDEX_NL = 1, SORT_MERGE = 2, HASH = 3;
+
+    /** Flag or'ed to the index of a join in a plan that runs with its inner and outer swapped */
+    static final int SWAPPED = 1 << 30;
+
+    //orderJoins期间：连接、表和连接字段都编了号，集合用位图表示
+    private HashMap<String, TableStats> stats;
+    private LogicalJoinNode[] js, swapped;
+    private String[] aliases;
+    //每个连接两边的表号、字段号(子查询为-1)、是否主键、能否探测那一边的索引
+    private int[] t1, t2, f1, f2;
+    private boolean[] pkey1, pkey2, probe1, probe2;
+    private long[] joinTables;
+    private long pkeyJoins;
+    //每个连接按统计信息估计的选择率，没有统计信息时为NaN
+    private double[] joinSels;
+    //每个字段被哪些连接用到
+    private long[] fieldJoins;
+    //每个表的扫描代价、过滤后的基数、有序的字段和元组的字节数
+    private TableStats[] tableStats;
+    private double[] scanCosts;
+    private int[] scanCards;
+    private long[] scanOrders;
+    private int[] tupleSizes;
+    private int[] candidates;
+
     /**
      * Constructor
      * 
@@ -27,6 +58,16 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Set the largest number of tables whose joins {@link #orderJoins} orders
+     * by dynamic programming over all subsets of the joins, which takes time
+     * exponential in the number of joins. The joins of more tables are
+     * ordered greedily, adding the cheapest join to the plan at each step.
+     */
+    public void setMaxDpTables(int tables) {
+        this.maxDpTables = tables;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -68,7 +109,26 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        //两边已经按连接字段有序，或者是范围连接时用归并连接，不必哈希也不必重扫内表
+        if (!(lj instanceof LogicalSubplanJoinNode) && SortMergeJoin.supports(lj.p)
+                && (lj.p != Predicate.Op.EQUALS
+                        || SortMergeJoin.isSortedOn(plan1, t1id) && SortMergeJoin.isSortedOn(plan2, t2id)))
+            return new SortMergeJoin(p, plan1, plan2);
+
+        //内表是直接扫描、按连接字段建索引的B+树时，用外表元组探测索引；
+        //否则等值连接用哈希连接，其余用块嵌套循环
+        BTreeFile index = null;
+        if (!(lj instanceof LogicalSubplanJoinNode) && plan2 instanceof SeqScan && Join.isIndexable(lj.p)) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan2).getTableId());
+            if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == t2id)
+                index = (BTreeFile) f;
+        }
+        if (index != null)
+            j = new Join(p, plan1, plan2, index, ((SeqScan) plan2).getTransactionId());
+        else if (!(lj instanceof LogicalSubplanJoinNode) && lj.p == Predicate.Op.EQUALS)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -107,11 +167,14 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            //与instantiateJoin的选择一致：范围连接或两边都已有序时是归并连接，
+            //其余等值连接是哈希连接；左边按t1的元组大小估计
+            boolean sorted1 = isSortedOn(j.t1Alias, j.f1PureName);
+            boolean sorted2 = isSortedOn(j.t2Alias, j.f2PureName);
+            Integer tid = p.getTableId(j.t1Alias);
+            int size1 = tid == null ? 0 : Database.getCatalog().getTupleDesc(tid).getSize();
+            return estimateJoinCost(j, joinAlgorithm(j, sorted1, sorted2, false), card1, card2, cost1, cost2,
+                    sorted1, sorted2, 0, null, size1);
         }
     }
 
@@ -155,47 +218,90 @@ public class JoinOptimizer {
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
         // some code goes here
-        return card <= 0 ? 1 : card;
+        return joinCardinality(joinOp, card1, card2, t1pkey, t2pkey,
+                estimateTableJoinSelectivity(joinOp, table1Alias, table2Alias,
+                        field1PureName, field2PureName, stats, tableAliasToId));
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * Estimate the selectivity of a join of two tables from the histograms
+     * of the join fields, as a fraction of the cross product of the tables.
+     *
+     * @return the selectivity, or NaN if there are no statistics for one of
+     *         the tables or fields
      */
-    @SuppressWarnings("unchecked")
-    public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
-        Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+    static double estimateTableJoinSelectivity(Predicate.Op joinOp,
+            String table1Alias, String table2Alias, String field1PureName,
+            String field2PureName, Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId) {
+        Integer id1 = tableAliasToId.get(table1Alias), id2 = tableAliasToId.get(table2Alias);
+        if (stats == null || id1 == null || id2 == null)
+            return Double.NaN;
+        TableStats s1 = stats.get(Database.getCatalog().getTableName(id1));
+        TableStats s2 = stats.get(Database.getCatalog().getTableName(id2));
+        if (s1 == null || s2 == null)
+            return Double.NaN;
+        try {
+            return s1.estimateJoinSelectivity(
+                    Database.getCatalog().getTupleDesc(id1).fieldNameToIndex(field1PureName), joinOp, s2,
+                    Database.getCatalog().getTupleDesc(id2).fieldNameToIndex(field2PureName));
+        } catch (NoSuchElementException e) {
+            return Double.NaN;
         }
+    }
 
-        return els;
+    /**
+     * @param sel the selectivity of the join from the statistics, or NaN
+     * @return the cardinality of a join of card1 and card2 tuples
+     */
+    private static int joinCardinality(Predicate.Op joinOp, int card1, int card2,
+            boolean t1pkey, boolean t2pkey, double sel) {
+        double card;
+        //等值连接到主键上时每个元组至多匹配一个
+        if (joinOp == Predicate.Op.EQUALS && t1pkey && t2pkey)
+            card = Math.min(card1, card2);
+        else if (joinOp == Predicate.Op.EQUALS && t1pkey)
+            card = card2;
+        else if (joinOp == Predicate.Op.EQUALS && t2pkey)
+            card = card1;
+        else if (!Double.isNaN(sel))
+            card = Math.ceil(sel * card1 * card2);
+        //没有统计信息：等值按较大的一边，其余按固定的比例
+        else if (joinOp == Predicate.Op.EQUALS)
+            card = Math.max(card1, card2);
+        else if (joinOp == Predicate.Op.NOT_EQUALS)
+            card = (double) card1 * card2;
+        else
+            card = 0.3 * card1 * card2;
+        card = Math.min(Integer.MAX_VALUE, card);
+        return card < 1 ? 1 : (int) card;
+    }
 
+    /**
+     * @return the next larger bitmask with as many bits set as s, so that
+     *         starting from the lowest k bits it enumerates every subset of
+     *         size k of the joins
+     */
+    static long nextSubset(long s) {
+        long low = s & -s;
+        long r = s + low;
+        return (((r ^ s) >>> 2) / low) | r;
     }
 
     /**
-     * Compute a logical, reasonably efficient join on the specified tables. See
-     * PS4 for hints on how this should be implemented.
+     * Compute a logical, reasonably efficient join on the specified tables.
+     * <p>
+     * Up to setMaxDpTables() tables, this is Selinger-style dynamic
+     * programming over left-deep plans: the best plan for each subset of the
+     * joins is built from the plans of its subsets one join smaller. Each join
+     * is costed with the algorithm instantiateJoin will pick for it -- sort-merge,
+     * index nested-loop, hash or block nested-loop -- which depends on whether its
+     * inputs are sorted on the join fields. So besides the cheapest plan of
+     * each subset, the cheapest plan sorted on each join field that a later
+     * join uses is kept, as an interesting order. Above that many tables, the
+     * plan is built greedily from the cheapest join of two tables, adding the
+     * cheapest join to it at each step.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -220,29 +326,191 @@ public class JoinOptimizer {
         //Not necessary for labs 1--3
 
         // some code goes here
-        //Replace the following
-        return joins;
+        if (joins.isEmpty())
+            return joins;
+        prepare(stats, filterSelectivities);
+        int n = joins.size();
+        //有环的连接图里连接比表多，子集个数按连接数算
+        PlanCache pc = new PlanCache();
+        int plan = Math.max(aliases.length, n + 1) <= maxDpTables
+                ? orderJoinsByDp(pc) : orderJoinsGreedily(pc);
+        //有笛卡尔积时找不到计划，原样交给physicalPlan报错
+        if (plan < 0)
+            return joins;
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        int[] plans = new int[n];
+        for (int q = plan, k = n - 1; q >= 0; q = pc.getParent(q), k--) {
+            int j = pc.getJoin(q);
+            order.add(0, (j & SWAPPED) != 0 ? swapped[j & ~SWAPPED] : js[j]);
+            plans[k] = q;
+        }
+        if (explain)
+            printJoins(order, plans, pc, stats, filterSelectivities);
+        return order;
+    }
+
+    private int orderJoinsByDp(PlanCache pc) {
+        int n = js.length;
+        for (int size = 1; size <= n; size++) {
+            for (long s = (1L << size) - 1; s < 1L << n; s = nextSubset(s)) {
+                CostCard best = null;
+                for (long rest = s; rest != 0; rest &= rest - 1) {
+                    CostCard cc = computeCostAndCardOfSubplan(Long.numberOfTrailingZeros(rest), s,
+                            best == null ? Double.MAX_VALUE : best.cost, pc);
+                    if (cc != null)
+                        best = cc;
+                }
+                if (best != null)
+                    pc.addPlan(s, best);
+            }
+        }
+        return pc.getBest((1L << n) - 1);
+    }
+
+    private int orderJoinsGreedily(PlanCache pc) {
+        long all = (1L << js.length) - 1;
+        long done = 0;
+        while (done != all) {
+            CostCard best = null;
+            int bestJoin = -1;
+            for (long rest = all & ~done; rest != 0; rest &= rest - 1) {
+                int j = Long.numberOfTrailingZeros(rest);
+                CostCard cc = computeCostAndCardOfSubplan(j, done | 1L << j,
+                        best == null ? Double.MAX_VALUE : best.cost, pc);
+                if (cc != null) {
+                    best = cc;
+                    bestJoin = j;
+                }
+            }
+            if (best == null)
+                return -1;
+            done |= 1L << bestJoin;
+            pc.addPlan(done, best);
+        }
+        return pc.getBest(done);
     }
 
     // ===================== Private Methods =================================
 
+    /**
+     * Number the joins, their tables and their join fields for one run of
+     * orderJoins, so that sets of them are bitmasks, and look up once what
+     * is known about each table and join.
+     */
+    private void prepare(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) throws ParsingException {
+        int n = joins.size();
+        if (n >= Long.SIZE)
+            throw new ParsingException("cannot order more than " + (Long.SIZE - 1) + " joins");
+        this.stats = stats;
+        HashMap<String, Integer> tables = new HashMap<String, Integer>();
+        HashMap<String, Integer> fields = new HashMap<String, Integer>();
+        js = new LogicalJoinNode[n];
+        swapped = new LogicalJoinNode[n];
+        t1 = new int[n];
+        t2 = new int[n];
+        f1 = new int[n];
+        f2 = new int[n];
+        pkey1 = new boolean[n];
+        pkey2 = new boolean[n];
+        probe1 = new boolean[n];
+        probe2 = new boolean[n];
+        joinTables = new long[n];
+        joinSels = new double[n];
+        pkeyJoins = 0;
+        for (int i = 0; i < n; i++) {
+            LogicalJoinNode j = joins.get(i);
+            if (this.p.getTableId(j.t1Alias) == null)
+                throw new ParsingException("Unknown table " + j.t1Alias);
+            if (j.t2Alias != null && this.p.getTableId(j.t2Alias) == null)
+                throw new ParsingException("Unknown table " + j.t2Alias);
+            boolean subplan = j instanceof LogicalSubplanJoinNode;
+            js[i] = j;
+            swapped[i] = subplan ? j : j.swapInnerOuter();
+            t1[i] = number(tables, j.t1Alias);
+            t2[i] = j.t2Alias == null ? -1 : number(tables, j.t2Alias);
+            f1[i] = subplan ? -1 : number(fields, j.f1QuantifiedName);
+            f2[i] = subplan ? -1 : number(fields, j.f2QuantifiedName);
+            pkey1[i] = isPkey(j.t1Alias, j.f1PureName);
+            pkey2[i] = j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName);
+            //交换内外表后谓词也反过来，能不能探测索引要按交换后的算
+            probe1[i] = !subplan && Join.isIndexable(swapped[i].p) && probesIndex(j.t1Alias, j.f1PureName);
+            probe2[i] = !subplan && Join.isIndexable(j.p) && probesIndex(j.t2Alias, j.f2PureName);
+            joinTables[i] = tableBit(t1[i]) | tableBit(t2[i]);
+            //选择率不随连接顺序变，只在这里估一次
+            joinSels[i] = subplan ? Double.NaN : estimateTableJoinSelectivity(j.p, j.t1Alias, j.t2Alias,
+                    j.f1PureName, j.f2PureName, stats, this.p.getTableAliasToIdMapping());
+            if (pkey1[i] || pkey2[i])
+                pkeyJoins |= 1L << i;
+        }
+        if (tables.size() > Long.SIZE)
+            throw new ParsingException("cannot order the joins of more than " + Long.SIZE + " tables");
+        //只跟踪前64个字段的顺序，其余的当作无序
+        fieldJoins = new long[Math.min(fields.size(), Long.SIZE)];
+        for (int i = 0; i < n; i++) {
+            if (f1[i] >= 0 && f1[i] < Long.SIZE)
+                fieldJoins[f1[i]] |= 1L << i;
+            if (f2[i] >= 0 && f2[i] < Long.SIZE)
+                fieldJoins[f2[i]] |= 1L << i;
+        }
+        candidates = new int[fieldJoins.length + 1];
+
+        aliases = new String[tables.size()];
+        for (Map.Entry<String, Integer> e : tables.entrySet())
+            aliases[e.getValue()] = e.getKey();
+        tableStats = new TableStats[aliases.length];
+        scanCosts = new double[aliases.length];
+        scanCards = new int[aliases.length];
+        scanOrders = new long[aliases.length];
+        tupleSizes = new int[aliases.length];
+        for (int t = 0; t < aliases.length; t++) {
+            Integer id = p.getTableId(aliases[t]);
+            tableStats[t] = id == null ? null : stats.get(Database.getCatalog().getTableName(id));
+            if (tableStats[t] == null)
+                throw new ParsingException("no statistics for table " + aliases[t]);
+            Double sel = filterSelectivities.get(aliases[t]);
+            if (sel == null)
+                throw new ParsingException("no filter selectivity for table " + aliases[t]);
+            scanCosts[t] = tableStats[t].estimateScanCost();
+            scanCards[t] = tableStats[t].estimateTableCardinality(sel);
+            tupleSizes[t] = Database.getCatalog().getTupleDesc(id).getSize();
+        }
+        //基表只可能按B+树的键有序
+        for (int i = 0; i < n; i++) {
+            if (isSortedOn(js[i].t1Alias, js[i].f1PureName))
+                scanOrders[t1[i]] |= fieldBit(f1[i]);
+            if (t2[i] >= 0 && isSortedOn(js[i].t2Alias, js[i].f2PureName))
+                scanOrders[t2[i]] |= fieldBit(f2[i]);
+        }
+    }
+
+    private static int number(HashMap<String, Integer> numbers, String name) {
+        Integer i = numbers.get(name);
+        if (i == null) {
+            i = numbers.size();
+            numbers.put(name, i);
+        }
+        return i;
+    }
+
+    private static long tableBit(int t) {
+        return t < 0 ? 0 : 1L << t;
+    }
+
+    private static long fieldBit(int f) {
+        return f < 0 || f >= Long.SIZE ? 0 : 1L << f;
+    }
+
     /**
      * This is a helper method that computes the cost and cardinality of joining
      * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
      * all of the subsets of size joinSet.size() - 1 have already been computed
      * and stored in PlanCache pc.
      * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
      * @param joinToRemove
-     *            the join to remove from joinSet
+     *            the index of the join to remove from joinSet
      * @param joinSet
-     *            the set of joins being considered
+     *            the bitmask of the set of joins being considered
      * @param bestCostSoFar
      *            the best way to join joinSet so far (minimum of previous
      *            invocations of computeCostAndCardOfSubplan for this joinSet,
@@ -251,141 +519,237 @@ public class JoinOptimizer {
      *            the PlanCache for this join; should have subplans for all
      *            plans of size joinSet.size()-1
      * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *         optimal subplan, or null if it is not cheaper than bestCostSoFar
+     *         or would need a cross product
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private CostCard computeCostAndCardOfSubplan(int joinToRemove, long joinSet,
+            double bestCostSoFar, PlanCache pc) {
+        int j = joinToRemove;
+        long news = joinSet & ~(1L << j);
+
+        if (news == 0) { // base case -- both are base relations
+            CostCard cc = joinPlan(j, -1, false, joinSet, pc);
+            return cc.cost < bestCostSoFar ? cc : null;
+        }
+
+        // news is not empty -- figure best way to join j to news, extending
+        // its best plan or one of its plans in an interesting order
+        int n = pc.getPlans(news, candidates);
+        if (n == 0)
+            return null;
+        long tables = 0;
+        for (long rest = news; rest != 0; rest &= rest - 1)
+            tables |= joinTables[Long.numberOfTrailingZeros(rest)];
+        boolean prevIsLeft;
+        if ((tables & tableBit(t1[j])) != 0) // j.t1 is in news
+            prevIsLeft = true;
+        else if ((tables & tableBit(t2[j])) != 0) // j.t2 is in news
+            prevIsLeft = false;
+        else
+            // don't consider this plan if one of j.t1 or j.t2
+            // isn't a table joined in news (cross product)
+            return null;
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        CostCard best = null;
+        for (int k = 0; k < n; k++) {
+            CostCard cc = joinPlan(j, candidates[k], prevIsLeft, joinSet, pc);
+            if (cc.cost < bestCostSoFar) {
+                best = cc;
+                bestCostSoFar = cc.cost;
             }
+        }
+        return best;
+    }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+    /**
+     * Cost join j of the plan prev from pc with the base table on its other
+     * side, or of its two base tables if prev is -1, each way round; keep
+     * each as a sorted plan for joinSet in pc if its output is in an
+     * interesting order, and return the cheaper one.
+     *
+     * @param prevIsLeft true if prev holds the left table of j
+     */
+    private CostCard joinPlan(int j, int prev, boolean prevIsLeft, long joinSet, PlanCache pc) {
+        //左右两边的代价、基数、有序字段、是否含主键连接、是否基表
+        double cost1, cost2;
+        int card1, card2;
+        long order1, order2;
+        boolean pk1 = pkey1[j], pk2 = pkey2[j];
+        boolean base1 = prev < 0 || !prevIsLeft, base2 = prev < 0 || prevIsLeft;
+        //prev的元组是它连接的所有表的元组拼起来的
+        int prevSize = 0;
+        if (prev >= 0) {
+            long tables = 0;
+            for (long rest = joinSet & ~(1L << j); rest != 0; rest &= rest - 1)
+                tables |= joinTables[Long.numberOfTrailingZeros(rest)];
+            for (; tables != 0; tables &= tables - 1)
+                prevSize += tupleSizes[Long.numberOfTrailingZeros(tables)];
+        }
+        int size1 = base1 ? tupleSizes[t1[j]] : prevSize;
+        int size2 = !base2 ? prevSize : t2[j] >= 0 ? tupleSizes[t2[j]] : 0;
+        if (base1) {
+            cost1 = scanCosts[t1[j]];
+            card1 = scanCards[t1[j]];
+            order1 = scanOrders[t1[j]];
+        } else {
+            cost1 = pc.getCost(prev);
+            card1 = pc.getCard(prev);
+            order1 = pc.getSortedOn(prev);
+            pk1 = (joinSet & ~(1L << j) & pkeyJoins) != 0;
+        }
+        if (!base2) {
+            cost2 = pc.getCost(prev);
+            card2 = pc.getCard(prev);
+            order2 = pc.getSortedOn(prev);
+            pk2 = (joinSet & ~(1L << j) & pkeyJoins) != 0;
+        } else if (t2[j] >= 0) {
+            cost2 = scanCosts[t2[j]];
+            card2 = scanCards[t2[j]];
+            order2 = scanOrders[t2[j]];
+        } else { // subquery
+            cost2 = 0;
+            card2 = 0;
+            order2 = 0;
+        }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        CostCard best = null;
+        for (int way = 0; way < 2; way++) {
+            if (way == 1 && t2[j] < 0)
+                break;
+            boolean sw = way == 1;
+            LogicalJoinNode jj = sw ? swapped[j] : js[j];
+            int outer = sw ? f2[j] : f1[j], inner = sw ? f1[j] : f2[j];
+            int lcard = sw ? card2 : card1, rcard = sw ? card1 : card2;
+            long lorder = sw ? order2 : order1, rorder = sw ? order1 : order2;
+            boolean sorted1 = (lorder & fieldBit(outer)) != 0, sorted2 = (rorder & fieldBit(inner)) != 0;
+            CostCard cc = new CostCard();
+            cc.card = t2[j] < 0 ? lcard : joinCardinality(jj.p, lcard, rcard, sw ? pk2 : pk1, sw ? pk1 : pk2, joinSels[j]);
+            int algorithm = joinAlgorithm(jj, sorted1, sorted2,
+                    (sw ? base1 : base2) && (sw ? probe1[j] : probe2[j]));
+            cc.cost = estimateJoinCost(jj, algorithm, lcard, rcard, sw ? cost2 : cost1, sw ? cost1 : cost2,
+                    sorted1, sorted2, cc.card, algorithm == INDEX_NL ? tableStats[sw ? t1[j] : t2[j]] : null,
+                    sw ? size2 : size1);
+            cc.sortedOn = outputOrder(jj, algorithm, lorder, outer, inner);
+            cc.join = sw ? j | SWAPPED : j;
+            cc.parent = prev;
+            //还有集合外的连接用到这个字段时，这个顺序才值得保留
+            for (long rest = cc.sortedOn; rest != 0; rest &= rest - 1) {
+                int f = Long.numberOfTrailingZeros(rest);
+                if ((fieldJoins[f] & ~joinSet) != 0)
+                    pc.addSortedPlan(joinSet, f, cc);
             }
+            if (best == null || cc.cost < best.cost)
+                best = cc;
         }
+        return best;
+    }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
-        }
-        if (cost1 >= bestCostSoFar)
-            return null;
+    /**
+     * @return the algorithm instantiateJoin will pick for j, given whether
+     *         its inputs are sorted on the join fields and whether it can
+     *         probe an index of the inner table
+     */
+    private static int joinAlgorithm(LogicalJoinNode j, boolean sorted1, boolean sorted2, boolean probe) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return BLOCK_NL;
+        if (SortMergeJoin.supports(j.p) && (j.p != Predicate.Op.EQUALS || sorted1 && sorted2))
+            return SORT_MERGE;
+        if (probe)
+            return INDEX_NL;
+        return j.p == Predicate.Op.EQUALS ? HASH : BLOCK_NL;
+    }
 
-        CostCard cc = new CostCard();
+    /**
+     * @return the bitmask of the fields the output of j is sorted on when it
+     *         runs with algorithm, given those its outer input is sorted on
+     *         and the numbers of its outer and inner join fields
+     */
+    private static long outputOrder(LogicalJoinNode j, int algorithm, long order1, int outer, int inner) {
+        if (algorithm == INDEX_NL)
+            return order1;
+        long order = 0;
+        if (algorithm == SORT_MERGE) {
+            //范围连接按driver一边的顺序输出，见SortMergeJoin.isSortedOn
+            if (j.p != Predicate.Op.LESS_THAN && j.p != Predicate.Op.LESS_THAN_OR_EQ)
+                order |= fieldBit(outer);
+            if (j.p != Predicate.Op.GREATER_THAN && j.p != Predicate.Op.GREATER_THAN_OR_EQ)
+                order |= fieldBit(inner);
+        }
+        return order;
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
+    /**
+     * Estimate the cost of j run with the given algorithm, in the units of
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * An index nested-loop join reads the index once per outer tuple instead
+     * of scanning the inner table.
+     *
+     * @param card the estimated cardinality of the join
+     * @param stats2 the statistics of the inner table, for an index nested-loop join
+     * @param size1 the size in bytes of the outer tuples, for hash and block nested-loop joins
+     */
+    private static double estimateJoinCost(LogicalJoinNode j, int algorithm, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2, int card, TableStats stats2,
+            int size1) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return card1 + cost1 + cost2;
+        switch (algorithm) {
+        case SORT_MERGE:
+            return SortMergeJoin.estimateCost(j.p, card1, card2, cost1, cost2, sorted1, sorted2);
+        case INDEX_NL:
+            //每次探测取出的元组占内表的比例
+            double matches = (double) card / Math.max(card1, 1);
+            double sel = Math.min(1.0, matches / Math.max(stats2.totalTuples(), 1));
+            return cost1 + card1 * stats2.estimateIndexScanCost(sel) + card;
+        case HASH:
+            return HashEquiJoin.estimateCost(card1, card2, cost1, cost2, size1);
+        default:
+            return Join.estimateCost(card1, card2, cost1, cost2, size1);
+        }
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Return true if the scan that physicalPlan chose for the table returns
+     * its tuples in the order of field; before physicalPlan has chosen, if
+     * the table is a BTreeFile keyed on field, so a scan of it can return
+     * them in that order
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private boolean isSortedOn(String tableAlias, String field) {
+        Integer tid = p.getTableId(tableAlias);
+        if (tid == null)
+            return false;
+        //physicalPlan已经选好了访问路径时，以它为准
+        OpIterator scan = p.getAccessPath(tableAlias);
+        if (scan != null) {
+            TupleDesc td = scan.getTupleDesc();
+            for (int i = 0; i < td.numFields(); i++)
+                if ((tableAlias + "." + field).equals(td.getFieldName(i)))
+                    return SortMergeJoin.isSortedOn(scan, i);
+            return false;
         }
-        return false;
+        return isIndexKey(tid, field);
+    }
+
+    /**
+     * Return true if instantiateJoin can probe the index of the specified
+     * table on field: the table is a BTreeFile keyed on field that
+     * physicalPlan reads with a plain SeqScan, if it has chosen already
+     */
+    private boolean probesIndex(String tableAlias, String field) {
+        Integer tid = p.getTableId(tableAlias);
+        if (tid == null)
+            return false;
+        OpIterator scan = p.getAccessPath(tableAlias);
+        return (scan == null || scan instanceof SeqScan) && isIndexKey(tid, field);
+    }
+
+    private static boolean isIndexKey(int tableid, String field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile))
+            return false;
+        TupleDesc td = f.getTupleDesc();
+        int key = ((BTreeFile) f).keyField();
+        return key < td.numFields() && field.equals(td.getFieldName(key));
     }
 
     /**
@@ -404,20 +768,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -425,6 +775,8 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
+     * @param plans
+     *            the number in pc of the plan ending with each join of js
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
      * @param stats
@@ -434,7 +786,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js, int[] plans, PlanCache pc,
             HashMap<String, TableStats> stats,
             HashMap<String, Double> selectivities) {
 
@@ -458,7 +810,9 @@ public class JoinOptimizer {
         boolean neither;
 
         System.out.println(js);
+        int k = 0;
         for (LogicalJoinNode j : js) {
+            int plan = plans[k++];
             pathSoFar.add(j);
             System.out.println("PATH SO FAR = " + pathSoFar);
 
@@ -471,8 +825,8 @@ public class JoinOptimizer {
             neither = true;
 
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+                    + pc.getCost(plan) + ", card = "
+                    + pc.getCard(plan) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
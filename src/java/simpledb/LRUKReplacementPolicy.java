@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). For every page the policy
+ * remembers the logical times of its last K references and evicts the page
+ * whose K-th most recent reference is oldest. Pages referenced fewer than K
+ * times have an infinite backward K-distance and go first, oldest last
+ * reference first, so a single sequential scan cannot push out pages that
+ * are used repeatedly (B+ tree roots and internal pages for example).
+ * <p>
+ * The reference history of evicted pages is retained for a bounded number
+ * of pages, so a page that comes back soon after eviction is still known
+ * to be hot.
+ */
+public class LRUKReplacementPolicy implements ReplacementPolicy {
+    /** Default K, LRU-2 is what the paper recommends for buffer pools. */
+    public static final int DEFAULT_K = 2;
+    private static final int DEFAULT_RETAINED = 1024;
+
+    private final int k;
+    private final HashMap<PageId, long[]> resident;
+    private final LinkedHashMap<PageId, long[]> retained;
+    private long clock;
+
+    public LRUKReplacementPolicy() {
+        this(DEFAULT_K, DEFAULT_RETAINED);
+    }
+
+    /**
+     * @param k number of references to remember per page, at least 1
+     * @param retainedPages how many evicted pages keep their history
+     */
+    public LRUKReplacementPolicy(int k, final int retainedPages) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.resident = new HashMap<>();
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > retainedPages;
+            }
+        };
+        this.clock = 0;
+    }
+
+    /**
+     * history[0] is the most recent reference, history[k-1] the K-th most
+     * recent one; 0 means "never referenced".
+     */
+    private void touch(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            history = retained.remove(pid);
+            if (history == null) history = new long[k];
+            resident.put(pid, history);
+        }
+        touch(history);
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history != null) touch(history);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        long[] history = resident.remove(pid);
+        if (history != null) retained.put(pid, history);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] history = e.getValue();
+            long kth = history[k - 1];
+            long last = history[0];
+            //K距离越大（第K次引用越早）越先淘汰，相同时按最近一次引用的LRU
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (!evictable.canEvict(e.getKey())) continue;
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+}
@@ -2,7 +2,11 @@ package simpledb;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /*
@@ -10,12 +14,138 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * Help class to maintain and process series of locks on a specific transaction
  * */
 public class LockManager{
-    private ConcurrentHashMap<PageId, List<Lock>> pageid2locklist;
-    private ConcurrentHashMap<TransactionId, Set<TransactionId>> dependencylist;
+    /** Number of stripes the lock table is split into, a power of two. */
+    private static final int STRIPES=64;
+
+    /** Default pause between two runs of the deadlock detector. */
+    public static final long DEFAULT_DETECTION_INTERVAL_MILLIS=10;
+    /** Pass to acquireLock to wait until the lock is granted or tid is a deadlock victim. */
+    public static final long NO_TIMEOUT=-1;
+
+    private final Stripe[] stripes;
+    //waits-for图：正在等待的事务，同时作为图的锁
+    private final HashMap<TransactionId, Waiter> waiting;
+    //每个事务持有锁的page，提交/中止时只需访问这些page
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages;
+    private Thread detector;
+    private volatile long detectionIntervalMillis;
+    private volatile VictimPolicy victimPolicy;
     public LockManager(){
-        pageid2locklist=new ConcurrentHashMap<>();
-        dependencylist=new ConcurrentHashMap<>();
+        this(DEFAULT_DETECTION_INTERVAL_MILLIS,VictimPolicy.YOUNGEST);
+    }
+
+    /**
+     * @param detectionIntervalMillis pause between two runs of the deadlock detector
+     * @param victimPolicy which transaction of a cycle to abort
+     */
+    public LockManager(long detectionIntervalMillis,VictimPolicy victimPolicy){
+        stripes=new Stripe[STRIPES];
+        for(int i=0;i<STRIPES;i++) stripes[i]=new Stripe();
+        waiting=new HashMap<>();
+        lockedPages=new ConcurrentHashMap<>();
+        setDetectionInterval(detectionIntervalMillis);
+        this.victimPolicy=victimPolicy;
+    }
+
+    /*
+     * 锁表按PageId的hash分成多个stripe，不同stripe上的page互不干扰。
+     * stripe的mutex只在需要等待（慢路径）时使用，等待者在各自page的Condition上睡眠。
+     * */
+    private static class Stripe{
+        final ConcurrentHashMap<PageId, PageLock> locks=new ConcurrentHashMap<>();
+        final ReentrantLock mutex=new ReentrantLock();
+    }
+
+    /*
+     * 一个page上的锁。
+     * word的最高可用位EXCLUSIVE表示有写锁，低位是读锁（包括升级前自己的读锁）的个数；
+     * 加读锁、加写锁、锁升级都是对word的一次CAS，不需要任何mutex。
+     * writer/readers记录持有者，供holdsLock和死锁检测使用。
+     * 没有持有者也没有等待者的锁从锁表中删除，删除前word被置为DEAD，
+     * 之后任何CAS都不会成功，拿着旧引用的加锁者会重新查找锁表。
+     * */
+    private static class PageLock{
+        static final long EXCLUSIVE=1L<<62;
+        static final long DEAD=EXCLUSIVE|1L<<61;
+
+        final AtomicLong word=new AtomicLong();
+        volatile TransactionId writer;
+        final Set<TransactionId> readers=ConcurrentHashMap.newKeySet();
+        //在该page上睡眠的事务数，释放锁时只有它不为0才需要去拿stripe的mutex唤醒
+        final AtomicInteger waiters=new AtomicInteger();
+        final Condition released;
+
+        PageLock(ReentrantLock mutex){
+            released=mutex.newCondition();
+        }
+
+        boolean tryShared(TransactionId tid){
+            if(tid.equals(writer)||readers.contains(tid)) return true;
+            while(true){
+                long s=word.get();
+                if((s&EXCLUSIVE)!=0) return false;
+                if(word.compareAndSet(s,s+1)){
+                    readers.add(tid);
+                    return true;
+                }
+            }
+        }
+
+        boolean tryExclusive(TransactionId tid){
+            if(tid.equals(writer)) return true;
+            //没有任何锁，或者唯一的读锁是自己的（锁升级）
+            long expect=readers.contains(tid)?1:0;
+            if(word.compareAndSet(expect,expect|EXCLUSIVE)){
+                writer=tid;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isDead(){
+            return word.get()==DEAD;
+        }
+
+        boolean release(TransactionId tid){
+            boolean removed=false;
+            if(tid.equals(writer)){
+                //写锁的持有者是page上唯一的持有者
+                writer=null;
+                readers.remove(tid);
+                word.set(0);
+                removed=true;
+            }
+            else if(readers.remove(tid)){
+                word.decrementAndGet();
+                removed=true;
+            }
+            return removed;
+        }
+
+        /** 当前与tid冲突的持有者 */
+        void holders(TransactionId tid,Permissions perm,Collection<TransactionId> out){
+            TransactionId w=writer;
+            if(w!=null&&!w.equals(tid)) out.add(w);
+            if(perm==Permissions.READ_WRITE){
+                for(TransactionId r:readers){
+                    if(!r.equals(tid)) out.add(r);
+                }
+            }
+        }
+    }
+
+    private Stripe stripe(PageId pid){
+        int h=pid.hashCode();
+        h^=h>>>16;
+        return stripes[h&(STRIPES-1)];
+    }
+
+    private PageLock pageLock(Stripe s,PageId pid){
+        PageLock pl=s.locks.get(pid);
+        if(pl!=null) return pl;
+        return s.locks.computeIfAbsent(pid,k->new PageLock(s.mutex));
     }
+
     /*
      * Added by lyy
      * Help class describing the type and tid of lock.
@@ -35,6 +165,10 @@ public class LockManager{
             this.tid=null;
         }
 
+        public Permissions getLockType(){
+            return lockType;
+        }
+
         @Override
         public boolean equals(Object obj) {
             if(this==obj) return true;
@@ -44,175 +178,335 @@ public class LockManager{
         }
     }
 
-    public synchronized void addLock(TransactionId tid,PageId pid,Permissions perm){
-        /*
-         * 对pid页增加一个锁
-         */
-        Lock lock_to_add=new Lock(perm,tid);
-        List<Lock> locklist=pageid2locklist.get(pid);
-        if(locklist==null){//如果这个页面上还没有Lock
-            locklist=new ArrayList<>();
+    /*
+     * waits-for图中一个正在等待的事务：它在哪个page上等什么锁，以及它在等哪些持有者。
+     * 图是增量维护的：开始等待/重新等待时更新waitsFor，拿到锁或放弃时删除该结点。
+     * */
+    private static class Waiter{
+        final TransactionId tid;
+        final Stripe stripe;
+        final PageLock pl;
+        final Permissions perm;
+        Set<TransactionId> waitsFor=Collections.emptySet();
+        //被死锁检测选为牺牲者，醒来后中止
+        volatile boolean victim;
+
+        Waiter(TransactionId tid,Stripe stripe,PageLock pl,Permissions perm){
+            this.tid=tid;
+            this.stripe=stripe;
+            this.pl=pl;
+            this.perm=perm;
         }
-        locklist.add(lock_to_add);
-        pageid2locklist.put(pid,locklist);
-        //在依赖集合中删除tid
-        removeDependency(tid);
     }
-    private synchronized void addDependency(TransactionId from_tid,TransactionId to_tid){
-        /*
-         * 添加from_tid的所依赖的to_tid
-         */
-        if(from_tid==to_tid) return;
-        Set<TransactionId> lis=dependencylist.get(from_tid);
-        if(lis==null||lis.size()==0){
-            lis=new HashSet<>();
-        }
-        lis.add(to_tid);
-        dependencylist.put(from_tid,lis);
+
+    /** How the deadlock detector picks the transaction to abort in a cycle. */
+    public enum VictimPolicy{
+        /** abort the transaction that started last */
+        YOUNGEST,
+        /** abort the transaction holding the fewest locks, the youngest on ties */
+        LEAST_WORK
     }
-    private synchronized void removeDependency(TransactionId tid){
-        /*
-         *返回在依赖集合中删除tid
-         */
-        dependencylist.remove(tid);
-    }
-    public synchronized boolean isexistCycle(TransactionId tid){
-        // using the logic of topologysort
-        //1.构建所有可达的tid的集合diverseid
-        Set<TransactionId> diverseid=new HashSet<>();//所有可达的tid的集合
-        Queue<TransactionId> que=new ConcurrentLinkedQueue<>();//由当前tid遍历到的尚未更新其他的结点队列
-        que.add(tid);
-        while(que.size()>0){
-            TransactionId remove_tid=que.remove();
-            if(diverseid.contains(remove_tid)) continue;
-            diverseid.add(remove_tid);
-            Set<TransactionId> now_set=dependencylist.get(remove_tid);
-            if(now_set==null) continue;
-            for(TransactionId now_tid:now_set){
-                que.add(now_tid);
+
+    private void enqueue(Waiter w,Set<TransactionId> holders){
+        synchronized(waiting){
+            w.waitsFor=holders;
+            waiting.put(w.tid,w);
+            if(detector==null){
+                detector=new Thread(this::detectDeadlocks,"deadlock-detector");
+                detector.setDaemon(true);
+                detector.start();
             }
         }
-        //2.统计所有可达的tid的入度now_rudu
-        ConcurrentHashMap<TransactionId,Integer> now_rudu=new ConcurrentHashMap<>();
-        for(TransactionId now_tid:diverseid){
-            now_rudu.put(now_tid,0);
-        }
-        for(TransactionId now_tid:diverseid){
-            Set<TransactionId> now_set=dependencylist.get(now_tid);
-            if(now_set==null) continue;
-            for(TransactionId now2_tid:now_set){
-                Integer temp = now_rudu.get(now2_tid);
-                temp++;
-                now_rudu.put(now2_tid,temp);
-            }
+    }
+
+    private void dequeue(Waiter w){
+        synchronized(waiting){
+            if(waiting.get(w.tid)==w) waiting.remove(w.tid);
         }
-        //3.循环找到入度为0的tid并删除该tid和其发出的边直至无法找到。
+    }
+
+    /*
+     * 后台死锁检测线程：每隔detectionInterval检查一次waits-for图，
+     * 图为空（没有事务在等待）时退出，下一个等待者会重新启动它。
+     * */
+    private void detectDeadlocks(){
         while(true){
-            int cnt=0;
-            for(TransactionId now_tid:diverseid){
-                if(now_rudu.get(now_tid)==null) continue;
-                if(now_rudu.get(now_tid)==0){
-                    Set<TransactionId> now_set=dependencylist.get(now_tid);
-                    if(now_set==null) continue;
-                    for(TransactionId now2_tid:now_set){
-                        Integer temp = now_rudu.get(now2_tid);
-                        if(temp==null) continue;
-                        temp--;
-                        now_rudu.put(now2_tid,temp);
-                    }
-                    now_rudu.remove(now_tid);
-                    cnt++;
+            try{
+                Thread.sleep(detectionIntervalMillis);
+            }catch(InterruptedException e){
+                synchronized(waiting){
+                    detector=null;
                 }
+                return;
+            }
+            HashMap<TransactionId,Set<TransactionId>> graph=new HashMap<>();
+            synchronized(waiting){
+                if(waiting.isEmpty()){
+                    detector=null;
+                    return;
+                }
+                for(Waiter w:waiting.values()) graph.put(w.tid,w.waitsFor);
+            }
+            List<TransactionId> cycle;
+            while((cycle=findCycle(graph))!=null){
+                TransactionId victim=chooseVictim(cycle);
+                //牺牲者不再等待，从图中去掉它再找下一个环
+                graph.remove(victim);
+                if(isLive(cycle)) abort(victim);
             }
-            if(cnt==0) break;
         }
-        //4.若还有剩余tid，则有环，反之无环
-        if(now_rudu.size()==0) return false;
-        return true;
     }
 
-    public synchronized boolean acquireShareLock(TransactionId tid,PageId pid)
-            throws DbException{
-        /*
-         * 返回是否需要被shared（只读）锁锁住，true为不需要被锁住，可继续执行接下来的操作。
-         * 遍历该page涉及的全部锁，若其中有一个写锁且不是自己的则拒绝访问，反之可以访问，并做相应更新。
-         */
-        List<Lock> locklist=pageid2locklist.get(pid);
-        if(locklist!=null && locklist.size()!=0)
-            //若已经有锁
-            for (Lock it:locklist) {
-                //遍历该page涉及的全部锁
-                if (it.lockType == Permissions.READ_WRITE) {
-                    //其中有一个写锁
-                    if(it.tid.equals(tid)) return true;//是自己的，可以访问
-                    else {//不是自己的，添加依赖tid，拒绝访问
-                        addDependency(tid,it.tid);
-                        return false;
+    /**
+     * Find one cycle in the waits-for graph with an iterative depth first
+     * search.
+     *
+     * @return the transactions on the cycle, or null if there is none
+     */
+    static List<TransactionId> findCycle(Map<TransactionId,Set<TransactionId>> graph){
+        //0未访问，1在当前dfs路径上，2已完成
+        HashMap<TransactionId,Integer> state=new HashMap<>();
+        for(TransactionId start:graph.keySet()){
+            if(state.containsKey(start)) continue;
+            ArrayList<TransactionId> path=new ArrayList<>();
+            ArrayList<Iterator<TransactionId>> iters=new ArrayList<>();
+            path.add(start);
+            iters.add(graph.get(start).iterator());
+            state.put(start,1);
+            while(!path.isEmpty()){
+                Iterator<TransactionId> it=iters.get(iters.size()-1);
+                if(!it.hasNext()){
+                    state.put(path.remove(path.size()-1),2);
+                    iters.remove(iters.size()-1);
+                    continue;
+                }
+                TransactionId next=it.next();
+                Integer st=state.get(next);
+                if(st==null){
+                    Set<TransactionId> out=graph.get(next);
+                    if(out==null){
+                        //next只持有锁不等待，不可能在环上
+                        state.put(next,2);
+                        continue;
                     }
+                    state.put(next,1);
+                    path.add(next);
+                    iters.add(out.iterator());
                 }
-                else if (it.tid.equals(tid)) return true;//若有自己的读锁，无需再加锁，直接返回可以访问
-                //读锁对这个读访问无影响
+                else if(st==1){
+                    return new ArrayList<>(path.subList(path.indexOf(next),path.size()));
+                }
+            }
+        }
+        return null;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle){
+        TransactionId victim=null;
+        int victimLocks=0;
+        for(TransactionId tid:cycle){
+            int locks=victimPolicy==VictimPolicy.LEAST_WORK?countLocks(tid):0;
+            if(victim==null||locks<victimLocks
+                    ||(locks==victimLocks&&tid.getId()>victim.getId())){
+                victim=tid;
+                victimLocks=locks;
+            }
+        }
+        return victim;
+    }
+
+    private int countLocks(TransactionId tid){
+        Set<PageId> held=lockedPages.get(tid);
+        return held==null?0:held.size();
+    }
+
+    /*
+     * 快照中的边在检测期间可能已经失效（持有者释放了锁，等待者还没醒来重算），
+     * 只有环上每条边仍然成立时才中止牺牲者，避免误杀。
+     * */
+    private boolean isLive(List<TransactionId> cycle){
+        for(int i=0;i<cycle.size();i++){
+            TransactionId from=cycle.get(i);
+            TransactionId to=cycle.get((i+1)%cycle.size());
+            Waiter w;
+            synchronized(waiting){
+                w=waiting.get(from);
             }
-        //若无锁或其他锁对当前操作无影响，增加这个锁，返回“可以访问”
-        addLock(tid,pid,Permissions.READ_ONLY);
+            if(w==null||w.victim) return false;
+            List<TransactionId> holders=new ArrayList<>();
+            w.pl.holders(from,w.perm,holders);
+            if(!holders.contains(to)) return false;
+        }
         return true;
     }
 
-    public synchronized boolean acquireExclusiveLock(TransactionId tid,PageId pid)
-            throws DbException{
+    private void abort(TransactionId victim){
+        Waiter w;
+        synchronized(waiting){
+            w=waiting.get(victim);
+        }
+        if(w==null) return;
+        w.victim=true;
+        w.stripe.mutex.lock();
+        try{
+            w.pl.released.signalAll();
+        }finally{
+            w.stripe.mutex.unlock();
+        }
+    }
+
+    /** Set how often the background thread looks for deadlocks. */
+    public void setDetectionInterval(long millis){
+        if(millis<=0) throw new IllegalArgumentException("interval must be positive");
+        detectionIntervalMillis=millis;
+    }
+
+    public void setVictimPolicy(VictimPolicy policy){
+        victimPolicy=policy;
+    }
+
+    private boolean tryAcquire(PageLock pl,PageId pid,TransactionId tid,Permissions perm){
+        boolean granted=perm==Permissions.READ_ONLY?pl.tryShared(tid):pl.tryExclusive(tid);
+        if(granted) lockedPages.computeIfAbsent(tid,k->ConcurrentHashMap.newKeySet()).add(pid);
+        return granted;
+    }
+
+    public boolean acquireLock(TransactionId tid,PageId pid,Permissions perm){
         /*
-         * 返回是否需要被exclusive（读写）锁锁住，true为不需要被锁住，可继续执行接下来的操作。
-         *
+         * 尝试加锁，不等待。返回true为加锁成功，可以继续访问
          */
-        List<Lock> locklist=pageid2locklist.get(pid);
-        if(locklist!=null&&locklist.size()!=0) {
-            //若已经有锁
-            for (Lock it:locklist) {
-                if(!it.tid.equals(tid)){//不是自己的，添加依赖tid，拒绝访问
-                    addDependency(tid,it.tid);
-                    return false;
+        Stripe s=stripe(pid);
+        while(true){
+            PageLock pl=pageLock(s,pid);
+            if(tryAcquire(pl,pid,tid,perm)) return true;
+            if(!pl.isDead()) return false;
+        }
+    }
+
+    /**
+     * Acquire a lock on pid, sleeping in the page's wait queue while another
+     * transaction holds a conflicting lock. Waiters are woken by
+     * releasePage/releaseAllLocks instead of polling.
+     * <p>
+     * Uncontended requests are a single CAS on the page's lock word; the
+     * stripe mutex is only taken by transactions that have to wait.
+     * <p>
+     * A waiting transaction is a node of the waits-for graph, with edges to
+     * the transactions holding the conflicting locks. A background thread
+     * looks for cycles in the graph and wakes up one victim per cycle.
+     *
+     * @param timeoutMillis how long to wait before giving up, NO_TIMEOUT to
+     *                      rely on deadlock detection alone
+     * @throws TransactionAbortedException if tid was chosen as a deadlock
+     *                                     victim, the lock could not be
+     *                                     granted in time or the thread was
+     *                                     interrupted
+     */
+    public void acquireLock(TransactionId tid,PageId pid,Permissions perm,long timeoutMillis)
+            throws TransactionAbortedException{
+        Stripe s=stripe(pid);
+        long remaining=timeoutMillis==NO_TIMEOUT?Long.MAX_VALUE:TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while(true){
+            PageLock pl=pageLock(s,pid);
+            if(tryAcquire(pl,pid,tid,perm)) return;
+            if(pl.isDead()) continue;
+
+            Waiter w=new Waiter(tid,s,pl,perm);
+            s.mutex.lock();
+            pl.waiters.incrementAndGet();
+            try{
+                while(true){
+                    //先登记为waiter再重试，释放者要么看到waiter要么已经让CAS能成功
+                    if(tryAcquire(pl,pid,tid,perm)) return;
+                    //登记之前锁已经从锁表中删除，重新查找；登记之后它不会再被删除
+                    if(pl.isDead()) break;
+                    if(w.victim||remaining<=0){
+                        throw new TransactionAbortedException();
+                    }
+                    //持有者可能已经变化，重新计算tid在waits-for图中的边
+                    Set<TransactionId> holders=new HashSet<>();
+                    pl.holders(tid,perm,holders);
+                    enqueue(w,holders);
+                    try{
+                        if(remaining==Long.MAX_VALUE) pl.released.await();
+                        else remaining=pl.released.awaitNanos(remaining);
+                    }catch(InterruptedException e){
+                        Thread.currentThread().interrupt();
+                        throw new TransactionAbortedException();
+                    }
                 }
-                else if(it.lockType == Permissions.READ_WRITE) return true;//若已有自己的读锁，无需再加锁，直接返回“可以访问”
+            }finally{
+                //线程可能被Thread.stop打断，先把自己从图中去掉，避免留下不存在的等待
+                dequeue(w);
+                pl.waiters.decrementAndGet();
+                if(s.mutex.isHeldByCurrentThread()) s.mutex.unlock();
             }
         }
-        //若无锁或其他锁对当前操作无影响，增加这个锁，返回“可以访问”
-        addLock(tid,pid, Permissions.READ_WRITE);
-        return true;
     }
 
-    public synchronized boolean acquireLock(TransactionId tid,PageId pid,Permissions perm)
-            throws DbException{
+    public void releasePage(TransactionId tid, PageId pid)
+    {
         /*
-         * 返回是否需要被锁锁住，true为需要不被锁住，可以继续访问，根据perm类型调用acquiresharelock或acquireexclusivelock
+         * 将pid上属于tid的锁释放，并唤醒在该page上等待的事务
          */
-        if(perm==Permissions.READ_ONLY) return acquireShareLock(tid,pid);
-        return acquireExclusiveLock(tid,pid);
+        Set<PageId> held=lockedPages.get(tid);
+        if(held!=null) held.remove(pid);
+        release(tid,pid);
+    }
+    private void release(TransactionId tid, PageId pid)
+    {
+        Stripe s=stripe(pid);
+        PageLock pl=s.locks.get(pid);
+        if(pl==null||!pl.release(tid)) return;
+        //还有别的持有者且没有人等待，什么都不用做
+        if(pl.waiters.get()==0&&pl.word.get()!=0) return;
+        s.mutex.lock();
+        try{
+            //waiters只在mutex下增加，这里看到0就不会再有人在这个锁上睡眠
+            if(pl.waiters.get()>0) pl.released.signalAll();
+            else if(pl.word.compareAndSet(0,PageLock.DEAD)) s.locks.computeIfPresent(pid,(k,v)->v==pl?null:v);
+        }finally{
+            s.mutex.unlock();
+        }
     }
 
-    public synchronized void releasePage(TransactionId tid, PageId pid)
+    /** @return the number of pages with an entry in the lock table */
+    int lockTableSize(){
+        int n=0;
+        for(Stripe s:stripes) n+=s.locks.size();
+        return n;
+    }
+    public void releaseAllLocks(TransactionId tid)
     {
         /*
-         * 将pid上属于tid的锁释放
+         * 释放tid持有的全部锁，包括已经不在BufferPool中的page上的锁
+         * （例如被evict或被rollback丢弃的page）
          */
-        List<Lock> locklist=pageid2locklist.get(pid);
-        if(locklist!=null&&locklist.size()!=0) {
-            locklist.removeIf(it -> it.tid.equals(tid));
+        Set<PageId> held=lockedPages.remove(tid);
+        if(held==null) return;
+        for (PageId pid : held) {
+            release(tid,pid);
         }
-        pageid2locklist.put(pid,locklist);
     }
-    public synchronized Lock getLock(TransactionId tid, PageId pid) {
+
+    /**
+     * @return the pages tid currently holds a lock on; a snapshot, so the
+     *         caller may release locks while iterating
+     */
+    public List<PageId> lockedPages(TransactionId tid){
+        Set<PageId> held=lockedPages.get(tid);
+        if(held==null) return Collections.emptyList();
+        return new ArrayList<>(held);
+    }
+    public Lock getLock(TransactionId tid, PageId pid) {
         /*
-         * 返回pid页面上tid对应的锁，null为没有这个锁
+         * 返回pid页面上tid对应的锁，null为没有这个锁；不加任何锁
          **/
-        List<Lock> list = pageid2locklist.get(pid);
-        if (list==null||list.size()==0) {
-            return null;
-        }
-        for (Lock lk:list) {
-            if (lk.tid.equals(tid)) return lk;
-        }
+        PageLock pl=stripe(pid).locks.get(pid);
+        if (pl==null) return null;
+        if (tid.equals(pl.writer)) return new Lock(Permissions.READ_WRITE,tid);
+        if (pl.readers.contains(tid)) return new Lock(Permissions.READ_ONLY,tid);
         return null;
     }
 
 }
-
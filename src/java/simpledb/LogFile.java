@@ -269,13 +269,19 @@ public class LogFile {
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            raf.readFully(pageData); //read before image
+
+            Constructor<?> pageConst = pageConsts[0];
+            Object[] pageArgs;
+            if (pageConst.getParameterTypes().length == 3) {
+                // B+ tree pages also need the key field of their file
+                DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                pageArgs = new Object[] { pid, pageData, ((BTreeFile) f).keyField() };
+            } else {
+                pageArgs = new Object[] { pid, pageData };
+            }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -467,10 +473,43 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    throw new NoSuchElementException("no live transaction " + tid.getId() + " in the log");
+
+                //每个page只需恢复该事务第一次修改它之前的before image
+                LinkedHashMap<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    if (type == UPDATE_RECORD) {
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        if (recordTid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                            beforeImages.put(before.getId(), before);
+                    } else if (type == CHECKPOINT_RECORD) {
+                        skipCheckpointBody();
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+
+                for (Page before : beforeImages.values()) {
+                    Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                    Database.getBufferPool().discardPage(before.getId());
+                }
             }
         }
     }
 
+    /** Skip the transaction table of a CHECKPOINT record; raf must be
+        positioned right after the record's type and tid. */
+    private void skipCheckpointBody() throws IOException {
+        int numXactions = raf.readInt();
+        raf.seek(raf.getFilePointer() + (long) numXactions * 2 * LONG_SIZE);
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -494,10 +533,105 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                long end = raf.length();
+                if (end < LONG_SIZE) {
+                    // nothing was ever logged
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = raf.getFilePointer();
+                    return;
+                }
+
+                //1.分析：找出已提交、已回滚的事务以及所有UPDATE记录的位置
+                Set<Long> committed = new HashSet<Long>();
+                Set<Long> finished = new HashSet<Long>();
+                Set<Long> seen = new LinkedHashSet<Long>();
+                ArrayList<Long> updateOffsets = new ArrayList<Long>();
+                ArrayList<Long> updateTids = new ArrayList<Long>();
+                raf.seek(LONG_SIZE);
+                long validEnd = LONG_SIZE;
+                try {
+                    while (raf.getFilePointer() < end) {
+                        long start = raf.getFilePointer();
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            updateOffsets.add(start);
+                            updateTids.add(recordTid);
+                            seen.add(recordTid);
+                            readPageData(raf);
+                            readPageData(raf);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            skipCheckpointBody();
+                            break;
+                        case COMMIT_RECORD:
+                            committed.add(recordTid);
+                            finished.add(recordTid);
+                            break;
+                        case ABORT_RECORD:
+                            finished.add(recordTid);
+                            break;
+                        case BEGIN_RECORD:
+                            seen.add(recordTid);
+                            break;
+                        }
+                        raf.readLong();
+                        validEnd = raf.getFilePointer();
+                    }
+                } catch (EOFException e) {
+                    // a record torn by the crash; everything before it is valid
+                }
+                if (validEnd < end) {
+                    //丢弃被截断的最后一条记录
+                    while (!updateOffsets.isEmpty() && updateOffsets.get(updateOffsets.size() - 1) >= validEnd) {
+                        updateOffsets.remove(updateOffsets.size() - 1);
+                        updateTids.remove(updateTids.size() - 1);
+                    }
+                    raf.setLength(validEnd);
+                    end = validEnd;
+                }
+
+                //2.redo：按日志顺序重做已提交事务的after image
+                for (int i = 0; i < updateOffsets.size(); i++) {
+                    if (!committed.contains(updateTids.get(i))) continue;
+                    raf.seek(updateOffsets.get(i) + INT_SIZE + LONG_SIZE);
+                    readPageData(raf);
+                    installPage(readPageData(raf));
+                }
+
+                //3.undo：逆序撤销未完成事务的修改，最后写回的是最早的before image
+                for (int i = updateOffsets.size() - 1; i >= 0; i--) {
+                    if (finished.contains(updateTids.get(i))) continue;
+                    raf.seek(updateOffsets.get(i) + INT_SIZE + LONG_SIZE);
+                    installPage(readPageData(raf));
+                }
+
+                //4.为未完成的事务补写ABORT记录，避免再次恢复时重复undo
+                raf.seek(end);
+                currentOffset = end;
+                tidToFirstLogRecord.clear();
+                for (Long loser : seen) {
+                    if (finished.contains(loser)) continue;
+                    totalRecords++;
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(loser);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
             }
          }
     }
 
+    /** Write a page image recovered from the log to its file and drop any
+        cached copy from the buffer pool. */
+    private void installPage(Page p) throws IOException {
+        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        Database.getBufferPool().discardPage(p.getId());
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
@@ -2,6 +2,8 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -29,12 +31,14 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> groupByFields = new Vector<String>();
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<String> oByFields = new Vector<String>();
+    private HashMap<String, OpIterator> accessPaths = new HashMap<String, OpIterator>();
+    //索引扫描已经按ORDER BY的顺序返回元组
+    private boolean orderedByScan = false;
+    private Vector<Boolean> oByAsc = new Vector<Boolean>();
     private String query;
 //    private Query owner;
 
@@ -186,34 +190,42 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Calling this again adds further aggregates; all of them
+        are computed in one pass, grouped by every GROUP BY field.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+            addGroupBy(gfield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query. Calling this again adds further
+        group-by fields; a field already grouped by is ignored.
+        @param field the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String field) throws ParsingException {
+        field=disambiguateName(field);
+        if (!groupByFields.contains(field))
+            groupByFields.addElement(field);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this
+        again adds further sort fields, each less significant than the ones before.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAsc.addElement(asc);
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -271,6 +283,80 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** The constant of a filter, as a Field of the type of its column */
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** Choose how to read a table. A SeqScan reads the whole file; when the
+        table is a BTreeFile, a BTreeScan (or a BTreeReverseScan) can instead
+        evaluate one filter on the key field as an {@link IndexPredicate}, the
+        most selective one. The index is used when it is estimated cheaper than
+        the sequential scan, from the filter selectivity and the height of the
+        tree, or when its order is what the query needs anyway: a single table
+        ordered or grouped by the key field.
+        @param stats the statistics of the table, or null if there are none
+        @param indexFilters receives the filter the returned scan evaluates
+        @param explain whether to print which index scan was chosen
+        @return the scan
+     */
+    private OpIterator accessPath(TransactionId t, LogicalScanNode table, TableStats stats,
+            Set<LogicalFilterNode> indexFilters, boolean explain) throws ParsingException {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof BTreeFile))
+            return new SeqScan(t, table.t, table.alias);
+        int key = ((BTreeFile) file).keyField();
+        String keyName = table.alias + "." + file.getTupleDesc().getFieldName(key);
+
+        LogicalFilterNode best = null;
+        Field bestConstant = null;
+        double bestSel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || !lf.fieldQuantifiedName.equals(keyName) || !Join.isIndexable(lf.p))
+                continue;
+            Field c = filterConstant(lf, file.getTupleDesc().getFieldType(key));
+            double sel = stats == null ? 1.0 : stats.estimateSelectivity(key, lf.p, c);
+            if (best == null || sel < bestSel) {
+                best = lf;
+                bestConstant = c;
+                bestSel = sel;
+            }
+        }
+
+        //单表查询按键排序/分组时，索引的顺序省掉了排序或哈希
+        boolean single = joins.isEmpty() && tables.size() == 1;
+        boolean ordered = single && aggOps.isEmpty() && oByFields.size() == 1 && oByFields.elementAt(0).equals(keyName);
+        boolean grouped = single && groupByFields.size() == 1 && groupByFields.elementAt(0).equals(keyName);
+        boolean cheaper = best != null && stats != null
+                && stats.estimateIndexScanCost(bestSel) < stats.estimateScanCost();
+        if (!cheaper && !ordered && !grouped)
+            return new SeqScan(t, table.t, table.alias);
+
+        IndexPredicate ipred = null;
+        if (best != null) {
+            ipred = new IndexPredicate(best.p, bestConstant);
+            indexFilters.add(best);
+        }
+        if (explain)
+            System.out.println("Index scan of " + table.alias + (ipred == null ? "" : " with " + keyName + " " + best.p + " " + best.c));
+        if (ordered) {
+            orderedByScan = true;
+            if (!oByAsc.elementAt(0))
+                return new BTreeReverseScan(t, table.t, table.alias, ipred);
+        }
+        return new BTreeScan(t, table.t, table.alias, ipred);
+    }
+
+    /** @return the plan physicalPlan chose to read the table with the given
+        alias: its scan with the filters that the scan does not apply on top,
+        or null if it has not run */
+    public OpIterator getAccessPath(String alias) {
+        return accessPaths.get(alias);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -290,18 +376,22 @@ public class LogicalPlan {
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
+        HashSet<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
+        accessPaths.clear();
+        orderedByScan = false;
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            String baseTableName;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                baseTableName = Database.getCatalog().getTableName(table.t);
+                Database.getCatalog().getDatabaseFile(table.t);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-            
-            subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
+            OpIterator scan = accessPath(t, table, statsMap.get(baseTableName), indexFilters, explain);
+
+            subplanMap.put(table.alias,scan);
             filterSelectivities.put(table.alias, 1.0);
 
         }
@@ -323,10 +413,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -334,7 +421,9 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            //索引扫描已经按这个条件取元组，不用再过滤一遍
+            if (!indexFilters.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,6 +432,7 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+        accessPaths.putAll(subplanMap);
         
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
@@ -412,15 +502,20 @@ public class LogicalPlan {
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
+        boolean hasAgg = !aggOps.isEmpty();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                //聚合的输出列在所有group by列之后，按addAggregate的顺序
+                int a = 0;
+                while (a < aggOps.size() && !(aggOps.elementAt(a).equals(si.aggOp) && aggFields.elementAt(a).equals(si.fname)))
+                    a++;
+                if (a == aggOps.size())
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list was not added");
+                outFields.add(groupByFields.size() + a);
                 TupleDesc td = node.getTupleDesc();
 
-//                int  id;
                 try {
-//                    id = 
                     td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
 
@@ -429,16 +524,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -468,10 +564,16 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[afields.length];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    aops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                aggNode = new Aggregate(node, gfields, afields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -480,8 +582,14 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty() && !orderedByScan) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+                asc[i] = oByAsc.elementAt(i);
+            }
+            node = new OrderBy(fields, asc, node, OrderBy.NO_LIMIT);
         }
 
         return new Project(outFields, outTypes, node);
@@ -34,6 +34,47 @@ public interface OpIterator extends Serializable{
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Clears batch and fills it with the next tuples of the iteration, up to
+   * its capacity. This is the block-at-a-time alternative to
+   * hasNext()/next(); the two may be mixed. The default implementation is
+   * an adapter over the row API, operators override it to produce whole
+   * batches at once.
+   *
+   * @param batch the batch to fill, usually the same one on every call
+   * @return the number of tuples put in batch, 0 only when there are no
+   *         more tuples
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+    batch.clear();
+    while (!batch.isFull() && hasNext())
+      batch.add(next());
+    return batch.size();
+  }
+
+  /**
+   * Clears batch and fills it with the next tuples of the iteration, up to
+   * its capacity, one column at a time. Like nextBatch() it may be mixed
+   * with the row API. The default implementation decomposes the tuples of
+   * nextBatch(); scans and filters override it so int columns never become
+   * Field objects.
+   *
+   * @param batch the batch to fill, built for getTupleDesc()
+   * @return the number of rows put in batch, 0 only when there are no more
+   *         tuples
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default int nextColumns(ColumnBatch batch) throws DbException, TransactionAbortedException {
+    batch.clear();
+    TupleBatch rows = batch.rows();
+    nextBatch(rows);
+    for (int i = 0; i < rows.size(); i++)
+      batch.addTuple(rows.get(i));
+    rows.clear();
+    return batch.size();
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
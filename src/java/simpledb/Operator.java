@@ -44,6 +44,58 @@ public abstract class Operator implements OpIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    public int nextBatch(TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        //hasNext()预读了一个元组，这一批先走行接口把它交出去
+        if (next != null)
+            return OpIterator.super.nextBatch(batch);
+        batch.clear();
+        fetchBatch(batch);
+        return batch.size();
+    }
+
+    public int nextColumns(ColumnBatch batch) throws DbException,
+            TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        if (next != null)
+            return OpIterator.super.nextColumns(batch);
+        batch.clear();
+        fetchColumns(batch);
+        return batch.size();
+    }
+
+    /**
+     * Columnar version of <code>fetchBatch</code>, used to implement
+     * <code>nextColumns</code>. The default decomposes the tuples of
+     * <code>fetchBatch</code>.
+     */
+    protected void fetchColumns(ColumnBatch batch) throws DbException,
+            TransactionAbortedException {
+        TupleBatch rows = batch.rows();
+        rows.clear();
+        fetchBatch(rows);
+        for (int i = 0; i < rows.size(); i++)
+            batch.addTuple(rows.get(i));
+        rows.clear();
+    }
+
+    /**
+     * Fills batch, which is empty on entry, with the next tuples of the
+     * iteration. Operator uses this method to implement
+     * <code>nextBatch</code>; the default calls <code>fetchNext</code> until
+     * the batch is full, subclasses override it to work a batch at a time.
+     * Leaving the batch empty means the iteration is finished.
+     */
+    protected void fetchBatch(TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        Tuple t;
+        while (!batch.isFull() && (t = fetchNext()) != null)
+            batch.add(t);
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
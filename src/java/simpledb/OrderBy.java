@@ -3,18 +3,32 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or
+ * more fields, each ascending or descending, compared by a
+ * {@link TupleComparator}. The child
+ * is sorted with an {@link ExternalSort}, so only a bounded number of
+ * tuples is held in memory and larger inputs are sorted in runs on disk.
+ * With a limit of N (ORDER BY ... LIMIT N) only the first N tuples are
+ * kept, in a bounded priority queue, and nothing is written to disk.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+    /** Limit meaning all tuples are returned */
+    public static final int NO_LIMIT = -1;
+
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private int[] orderByFields;
+    private boolean[] asc;
+    private final int limit;
+    private int memoryBudget = ExternalSort.DEFAULT_MEMORY;
+
+    //top-N时排好序的前N个元组；否则是外部排序及其当前游标，returned是已经返回的个数
+    private transient ArrayList<Tuple> top;
+    private transient ExternalSort sort;
+    private transient ExternalSort.Cursor cursor;
+    private int returned;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,26 +41,80 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first limit tuples in
+     * the order.
+     *
+     * @param limit
+     *            the number of tuples to return, or NO_LIMIT
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, limit);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return, or NO_LIMIT
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int limit) {
+        if (limit < 0 && limit != NO_LIMIT)
+            throw new IllegalArgumentException("negative limit " + limit);
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one direction for each of at least one sort field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
     }
     
+    /** @return true if the first sort field is ascending */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /** @return the first sort field */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /** @return all sort fields, most significant first */
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    /** @return the number of tuples returned, or NO_LIMIT */
+    public int getLimit()
+    {
+        return this.limit;
+    }
+
+    /**
+     * Set how many tuples are kept in memory; when the child has more, the
+     * sort writes sorted runs to temp files and merges them.
+     */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = Math.max(1, tuples);
     }
     
     public TupleDesc getTupleDesc() {
@@ -56,21 +124,56 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        TupleComparator cmp = new TupleComparator(td, orderByFields, asc);
+        if (limit != NO_LIMIT && limit <= memoryBudget) {
+            top = topN(cmp);
+        } else {
+            sort = new ExternalSort(td, cmp, memoryBudget);
+            sort.addAll(child);
+            cursor = sort.sorted();
+        }
+        returned = 0;
         super.open();
     }
 
+    /** Keep the first limit tuples of the child in a heap whose root is the last of them */
+    private ArrayList<Tuple> topN(TupleComparator cmp) throws DbException, TransactionAbortedException {
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, limit), Collections.reverseOrder(cmp));
+        TupleBatch batch = new TupleBatch();
+        while (child.nextBatch(batch) > 0) {
+            for (int i = 0; i < batch.size(); i++) {
+                Tuple t = batch.get(i);
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (limit > 0 && cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+        }
+        ArrayList<Tuple> l = new ArrayList<Tuple>(heap);
+        cmp.sort(l);
+        return l;
+    }
+
     public void close() {
         super.close();
-        it = null;
+        if (cursor != null)
+            cursor.close();
+        if (sort != null)
+            sort.clear();
+        cursor = null;
+        sort = null;
+        top = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (cursor != null) {
+            cursor.close();
+            cursor = sort.sorted();
+        }
+        returned = 0;
     }
 
     /**
@@ -82,10 +185,14 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (top != null)
+            return returned < top.size() ? top.get(returned++) : null;
+        if (cursor == null || returned == limit)
             return null;
+        Tuple t = cursor.next();
+        if (t != null)
+            returned++;
+        return t;
     }
 
     @Override
@@ -99,25 +206,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
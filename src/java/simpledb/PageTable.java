@@ -0,0 +1,218 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * PageTable maps the PageIds of the pages resident in the BufferPool to the
+ * pages themselves.
+ * <p>
+ * Every PageId is packed into one primitive 64 bit key (tableId, pageNo,
+ * category), so two different pages can never alias each other the way
+ * they could when the pool was keyed by PageId.hashCode(). Keys live in a
+ * long[] with open addressing and linear probing; removal uses backward
+ * shift deletion, so there are no tombstones.
+ * <p>
+ * Lookups are optimistic reads on a StampedLock and allocate nothing;
+ * modifications take the write lock.
+ *
+ * @Threadsafe
+ */
+public class PageTable {
+    private static final int PAGE_BITS = 29;
+    private static final int CATEGORY_BITS = 3;
+    private static final long PAGE_MASK = (1L << PAGE_BITS) - 1;
+
+    /** keys and pages are swapped together on resize */
+    private static final class Slots {
+        final long[] keys;
+        final Page[] pages;
+        final int mask;
+
+        Slots(int capacity) {
+            keys = new long[capacity];
+            pages = new Page[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Slots slots;
+    private int size;
+
+    /**
+     * @param expectedPages number of pages the table should hold without
+     *                      resizing
+     */
+    public PageTable(int expectedPages) {
+        int capacity = 16;
+        while (capacity < expectedPages * 2) capacity <<= 1;
+        slots = new Slots(capacity);
+        size = 0;
+    }
+
+    /**
+     * Pack a PageId into the primitive key used by the table. Heap pages use
+     * category 0, B+ tree pages their pgcateg() + 1.
+     */
+    public static long key(PageId pid) {
+        long category = 0;
+        if (pid instanceof BTreePageId) category = ((BTreePageId) pid).pgcateg() + 1;
+        int pgNo = pid.getPageNumber();
+        if (pgNo < 0 || pgNo > PAGE_MASK)
+            throw new IllegalArgumentException("page number out of range: " + pgNo);
+        return ((long) pid.getTableId() << 32) | ((long) pgNo << CATEGORY_BITS) | category;
+    }
+
+    private static int hash(long key) {
+        //murmur3 finalizer，使相邻page号分散到不同的槽
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /** Probe for key, return its slot or -1. Caller holds a (possibly optimistic) read stamp. */
+    private static int find(Slots s, long key) {
+        int i = hash(key) & s.mask;
+        while (true) {
+            Page p = s.pages[i];
+            if (p == null) return -1;
+            if (s.keys[i] == key) return i;
+            i = (i + 1) & s.mask;
+        }
+    }
+
+    /** @return the page with the given id, or null if it is not resident */
+    public Page get(PageId pid) {
+        long key = key(pid);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Slots s = slots;
+            Page p = null;
+            try {
+                int i = find(s, key);
+                if (i >= 0) p = s.pages[i];
+            } catch (RuntimeException e) {
+                //写者在读的过程中修改了数组，下面validate会失败并重读
+            }
+            if (lock.validate(stamp)) return p;
+        }
+        stamp = lock.readLock();
+        try {
+            Slots s = slots;
+            int i = find(s, key);
+            return i >= 0 ? s.pages[i] : null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(PageId pid) {
+        return get(pid) != null;
+    }
+
+    /**
+     * Insert or replace the page stored under pid.
+     *
+     * @return the page previously stored under pid, or null
+     */
+    public Page put(PageId pid, Page page) {
+        if (page == null) throw new IllegalArgumentException("page must not be null");
+        long key = key(pid);
+        long stamp = lock.writeLock();
+        try {
+            Slots s = slots;
+            int i = find(s, key);
+            if (i >= 0) {
+                Page old = s.pages[i];
+                s.pages[i] = page;
+                return old;
+            }
+            if ((size + 1) * 2 > s.keys.length) {
+                s = grow(s);
+                slots = s;
+            }
+            insert(s, key, page);
+            size++;
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static void insert(Slots s, long key, Page page) {
+        int i = hash(key) & s.mask;
+        while (s.pages[i] != null) i = (i + 1) & s.mask;
+        s.keys[i] = key;
+        s.pages[i] = page;
+    }
+
+    private static Slots grow(Slots s) {
+        Slots bigger = new Slots(s.keys.length * 2);
+        for (int i = 0; i < s.keys.length; i++) {
+            if (s.pages[i] != null) insert(bigger, s.keys[i], s.pages[i]);
+        }
+        return bigger;
+    }
+
+    /**
+     * Remove the page stored under pid.
+     *
+     * @return the removed page, or null if it was not resident
+     */
+    public Page remove(PageId pid) {
+        long key = key(pid);
+        long stamp = lock.writeLock();
+        try {
+            Slots s = slots;
+            int i = find(s, key);
+            if (i < 0) return null;
+            Page old = s.pages[i];
+            //backward shift：把后面探测链上的元素往前挪，保证查找不会提前遇到空槽
+            int hole = i;
+            int j = (i + 1) & s.mask;
+            while (s.pages[j] != null) {
+                int home = hash(s.keys[j]) & s.mask;
+                if (((j - home) & s.mask) >= ((j - hole) & s.mask)) {
+                    s.keys[hole] = s.keys[j];
+                    s.pages[hole] = s.pages[j];
+                    hole = j;
+                }
+                j = (j + 1) & s.mask;
+            }
+            s.pages[hole] = null;
+            s.keys[hole] = 0;
+            size--;
+            return old;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** @return a snapshot of the resident pages */
+    public List<Page> values() {
+        long stamp = lock.readLock();
+        try {
+            Slots s = slots;
+            ArrayList<Page> result = new ArrayList<>(size);
+            for (Page p : s.pages) {
+                if (p != null) result.add(p);
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -1,50 +1,195 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
+import java.util.Arrays;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.  A set of joins is a bitmask over the
+ * indexes of the joins being ordered.  Besides the cheapest plan, it keeps the
+ * cheapest plan whose output is sorted on each interesting field, which may
+ * make a later join cheaper than the cheapest plan would.
+ * <p>
+ * Plans are numbered in the order they are added and kept in primitive
+ * arrays; a plan stores its last join and the number of the plan it
+ * extends, so the plans of all subsets share their prefixes.  Sets are
+ * looked up in an open addressing table on the bitmask itself, so no set,
+ * vector or boxed key is created per plan or per lookup.
+ */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
-        new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
-        @param cost the estimated cost of the specified plan
-        @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+    //每个计划：代价、基数、最后一个连接、它扩展的计划、输出有序的字段
+    private double[] costs = new double[64];
+    private int[] cards = new int[64];
+    private int[] joins = new int[64];
+    private int[] parents = new int[64];
+    private long[] sortedOn = new long[64];
+    private int numPlans;
+
+    //开放寻址表：连接集合 -> 最好的计划+1，以及有序计划链表的头节点+1；0表示没有
+    private long[] keys = new long[64];
+    private int[] best = new int[64];
+    private int[] sortedHeads = new int[64];
+    private int numSets;
+
+    //有序计划链表的节点：字段、按它有序最便宜的计划、下一个节点+1
+    private int[] nodeFields = new int[16];
+    private int[] nodePlans = new int[16];
+    private int[] nodeNext = new int[16];
+    private int numNodes;
+
+    private static int hash(long s) {
+        long h = s * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** @return the slot of the non-empty set s, or -1 if it is not in the table and create is false */
+    private int slot(long s, boolean create) {
+        int mask = keys.length - 1;
+        int i = hash(s) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == s)
+                return i;
+            i = (i + 1) & mask;
+        }
+        if (!create)
+            return -1;
+        if ((numSets + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+            return slot(s, true);
+        }
+        keys[i] = s;
+        numSets++;
+        return i;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldBest = best, oldHeads = sortedHeads;
+        keys = new long[capacity];
+        best = new int[capacity];
+        sortedHeads = new int[capacity];
+        int mask = capacity - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] == 0)
+                continue;
+            int i = hash(oldKeys[k]) & mask;
+            while (keys[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[k];
+            best[i] = oldBest[k];
+            sortedHeads[i] = oldHeads[k];
+        }
+    }
+
+    private int newPlan(CostCard cc) {
+        if (numPlans == costs.length) {
+            int n = numPlans * 2;
+            costs = Arrays.copyOf(costs, n);
+            cards = Arrays.copyOf(cards, n);
+            joins = Arrays.copyOf(joins, n);
+            parents = Arrays.copyOf(parents, n);
+            sortedOn = Arrays.copyOf(sortedOn, n);
+        }
+        costs[numPlans] = cc.cost;
+        cards[numPlans] = cc.card;
+        joins[numPlans] = cc.join;
+        parents[numPlans] = cc.parent;
+        sortedOn[numPlans] = cc.sortedOn;
+        return numPlans++;
+    }
+
+    /** Add a new best plan for a particular join set.  Does not verify that the
+        new cost is less than any previously added cost -- simply adds or replaces
+        the best plan for the specified join set
+        @param s the set of joins for which a new plan is being added
+        @param cc the cost, cardinality, last join and sort order of the plan
+        @return the number of the new plan
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+    int addPlan(long s, CostCard cc) {
+        int plan = newPlan(cc);
+        //slot()可能扩容换掉best数组，先取槽位
+        int i = slot(s, true);
+        best[i] = plan + 1;
+        return plan;
+    }
+
+    /** Keep a plan for a particular join set as the one sorted on field, if it
+        is cheaper than the plan kept for that field so far
+        @param s the set of joins the plan computes
+        @param field the number of the field the output of the plan is sorted on
+        @param cc the plan
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    void addSortedPlan(long s, int field, CostCard cc) {
+        int i = slot(s, true);
+        for (int n = sortedHeads[i]; n != 0; n = nodeNext[n - 1]) {
+            if (nodeFields[n - 1] == field) {
+                if (cc.cost < costs[nodePlans[n - 1]])
+                    nodePlans[n - 1] = newPlan(cc);
+                return;
+            }
+        }
+        if (numNodes == nodeFields.length) {
+            nodeFields = Arrays.copyOf(nodeFields, numNodes * 2);
+            nodePlans = Arrays.copyOf(nodePlans, numNodes * 2);
+            nodeNext = Arrays.copyOf(nodeNext, numNodes * 2);
+        }
+        nodeFields[numNodes] = field;
+        nodePlans[numNodes] = newPlan(cc);
+        nodeNext[numNodes] = sortedHeads[i];
+        sortedHeads[i] = ++numNodes;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the plans in the cache worth extending for the specified join set
+        @param s the set of joins to look up the plans for
+        @param out receives the best plan for s, followed by the sorted plans
+        kept for s that differ from it; it needs room for one plan per field
+        sorted plans are kept for, plus one
+        @return the number of plans written to out, 0 if s has no plan in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    int getPlans(long s, int[] out) {
+        int i = slot(s, false);
+        if (i < 0 || best[i] == 0)
+            return 0;
+        int b = best[i] - 1;
+        int n = 0;
+        out[n++] = b;
+        for (int k = sortedHeads[i]; k != 0; k = nodeNext[k - 1]) {
+            int plan = nodePlans[k - 1];
+            if (joins[plan] != joins[b] || parents[plan] != parents[b])
+                out[n++] = plan;
+        }
+        return n;
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the best plan in the cache for the specified join set
+        @param s the set of joins to look up the best plan for
+        @return the number of the best plan for s, or -1 if there is none
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getBest(long s) {
+        int i = slot(s, false);
+        return i < 0 ? -1 : best[i] - 1;
+    }
+
+    /** @return the estimated cost of the specified plan */
+    double getCost(int plan) {
+        return costs[plan];
+    }
+
+    /** @return the estimated cardinality of the specified plan */
+    int getCard(int plan) {
+        return cards[plan];
+    }
+
+    /** @return the last join of the specified plan, see {@link CostCard#join} */
+    int getJoin(int plan) {
+        return joins[plan];
+    }
+
+    /** @return the plan the last join of the specified plan extends, or -1 if
+        its last join is its only one */
+    int getParent(int plan) {
+        return parents[plan];
+    }
+
+    /** @return the bitmask of the fields the output of the specified plan is sorted on */
+    long getSortedOn(int plan) {
+        return sortedOn[plan];
     }
 }
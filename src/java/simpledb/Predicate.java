@@ -105,6 +105,52 @@ public class Predicate implements Serializable {
         return t.getField(this.fieldNo).compare(this.op,this.operand);
     }
 
+    /**
+     * Applies this predicate to every row of a column batch. An int column is
+     * compared straight from its int[]; other columns fall back to
+     * Field.compare.
+     *
+     * @param batch
+     *            the rows to compare against
+     * @param rows
+     *            receives the indexes of the rows for which the comparison
+     *            is true, in ascending order
+     * @return the number of such rows
+     */
+    public int filter(ColumnBatch batch, int[] rows) {
+        int n = 0, size = batch.size();
+        if (batch.getTupleDesc().getFieldType(this.fieldNo) != Type.INT_TYPE) {
+            for (int i = 0; i < size; i++)
+                if (batch.getField(this.fieldNo, i).compare(this.op, this.operand)) rows[n++] = i;
+            return n;
+        }
+        int[] col = batch.ints(this.fieldNo);
+        int v = ((IntField) this.operand).getValue();
+        //把switch提到循环外面，每个循环体只剩一次比较
+        switch (this.op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < size; i++) if (col[i] == v) rows[n++] = i;
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < size; i++) if (col[i] != v) rows[n++] = i;
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < size; i++) if (col[i] > v) rows[n++] = i;
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < size; i++) if (col[i] >= v) rows[n++] = i;
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < size; i++) if (col[i] < v) rows[n++] = i;
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < size; i++) if (col[i] <= v) rows[n++] = i;
+            break;
+        }
+        return n;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
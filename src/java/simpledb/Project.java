@@ -69,17 +69,31 @@ public class Project extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
-            Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
+            return project(child.next());
         }
         return null;
     }
 
+    /**
+     * Projects a whole batch of the child, replacing its tuples in place.
+     */
+    @Override
+    protected void fetchBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        child.nextBatch(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.set(i, project(batch.get(i)));
+        }
+    }
+
+    private Tuple project(Tuple t) {
+        Tuple newTuple = new Tuple(td);
+        newTuple.setRecordId(t.getRecordId());
+        for (int i = 0; i < td.numFields(); i++) {
+            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+        }
+        return newTuple;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
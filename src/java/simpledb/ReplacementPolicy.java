@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool should throw out when
+ * it runs out of frames. The BufferPool tells the policy about every page
+ * that enters the pool, every hit on a resident page and every page that
+ * leaves the pool; when a frame is needed it asks the policy for a victim.
+ * <p>
+ * Implementations must be thread safe, since BufferPool.getPage is not
+ * serialized on a single monitor.
+ *
+ * @see ClockReplacementPolicy
+ * @see LRUKReplacementPolicy
+ * @see TwoQReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Callback used by chooseVictim to ask the BufferPool whether a resident
+     * page may be evicted right now (e.g. it is not dirty under NO STEAL).
+     */
+    interface Evictable {
+        boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called after a page was read from disk (or created) and put into the
+     * pool.
+     */
+    void pageLoaded(PageId pid);
+
+    /** Called whenever a resident page is requested again. */
+    void pageHit(PageId pid);
+
+    /**
+     * Called after a page left the pool, either because it was chosen as
+     * victim or because it was discarded.
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Pick a resident page to evict. The policy does not forget the page;
+     * the BufferPool calls pageRemoved once the page is actually gone.
+     *
+     * @param evictable filter for pages the BufferPool is able to evict
+     * @return the victim, or null if no resident page is evictable
+     */
+    PageId chooseVictim(Evictable evictable);
+}
@@ -13,7 +13,8 @@ public class SeqScan implements OpIterator {
     private final TransactionId transactionId;
     private int tableId;
     private String tableAlias;
-    private HeapFileIterator it = null;
+    private TupleDesc td;
+    private DbFileIterator it = null;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -32,10 +33,8 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
-        this.tableAlias = tableAlias;
         this.transactionId = tid;
-        this.tableId = tableid;
-
+        reset(tableid, tableAlias);
     }
 
     /**
@@ -47,6 +46,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     * */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     * */
+    public TransactionId getTransactionId() {
+        return this.transactionId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -72,6 +85,14 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        TupleDesc fileTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[fileTd.numFields()];
+        String[] names = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = fileTd.getFieldType(i);
+            names[i] = tableAlias + "." + fileTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -80,7 +101,7 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = (HeapFileIterator) Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.transactionId);
+        it = Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.transactionId);
         it.open();
     }
 
@@ -96,7 +117,7 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return Database.getCatalog().getTupleDesc(this.tableId);
+        return td;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -112,6 +133,25 @@ public class SeqScan implements OpIterator {
         return it.next();
     }
 
+    public int nextBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        if(it == null) {
+            batch.clear();
+            return 0;
+        }
+        //堆文件按页批量读，其他文件（如B+树）逐个读
+        if(it instanceof HeapFileIterator) return ((HeapFileIterator) it).nextBatch(batch);
+        return OpIterator.super.nextBatch(batch);
+    }
+
+    public int nextColumns(ColumnBatch batch) throws TransactionAbortedException, DbException {
+        if(it == null) {
+            batch.clear();
+            return 0;
+        }
+        if(it instanceof HeapFileIterator) return ((HeapFileIterator) it).nextColumns(batch);
+        return OpIterator.super.nextColumns(batch);
+    }
+
     public void close() {
         // some code goes here
         //it.close();
@@ -0,0 +1,362 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements the relational join for equality
+ * and range (&lt;, &lt;=, &gt;, &gt;=) predicates by merging both children in
+ * ascending order of their join fields. A child that is already in that
+ * order, a {@link BTreeScan} keyed on the join field, is read as it is;
+ * any other child is sorted first with an {@link ExternalSort}. Each child
+ * is read only once.
+ * <p>
+ * For an equality join the tuples of child2 with the current key are
+ * buffered and joined with every tuple of child1 with that key. For a range
+ * join the matches of each tuple of one child form a prefix of the other
+ * child in sort order, which only grows; the prefix is buffered, and spilled
+ * to disk when it outgrows the memory budget.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private int memoryBudget = ExternalSort.DEFAULT_MEMORY;
+
+    transient private Input left, right;
+    //等值连接：child2中键为groupKey的一组元组，正在和child1的元组t1连接
+    transient private ArrayList<Tuple> group;
+    transient private Field groupKey;
+    transient private Tuple t1;
+    private int groupPos = 0;
+    //范围连接：driver的每个元组匹配other按序的一个前缀，前缀先放内存，超出预算的部分放overflow
+    transient private Input driver, other;
+    transient private ArrayList<Tuple> prefix;
+    transient private SpillFile overflow;
+    transient private SpillFile.Reader overflowReader;
+    transient private Tuple d;
+    private int prefixPos = 0;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be one of =, &lt;, &lt;=, &gt;, &gt;=
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join cannot evaluate " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a sort-merge join can evaluate a predicate with this operator */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if child returns its tuples in ascending order of field,
+     *         so it need not be sorted: a BTreeScan keyed on field, possibly
+     *         under filters, which keep the order; a sort-merge join on field,
+     *         which merges in that order; or an index nested-loop join whose
+     *         outer child is sorted on field, since it probes the index once
+     *         per outer tuple in turn
+     */
+    public static boolean isSortedOn(OpIterator child, int field) {
+        while (child instanceof Filter)
+            child = ((Filter) child).getChildren()[0];
+        if (child instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) child;
+            int n1 = j.child1.getTupleDesc().numFields();
+            //等值连接两个连接字段都有序；范围连接只有driver一边有序
+            Predicate.Op op = j.pred.getOperator();
+            boolean leftDrives = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+            boolean rightDrives = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+            return field == j.pred.getField1() && !rightDrives
+                    || field == n1 + j.pred.getField2() && !leftDrives;
+        }
+        if (child instanceof Join && ((Join) child).isIndexJoin()) {
+            OpIterator outer = ((Join) child).getChildren()[0];
+            return field < outer.getTupleDesc().numFields() && isSortedOn(outer, field);
+        }
+        return child instanceof BTreeScan && ((BTreeScan) child).getKeyField() == field;
+    }
+
+    /**
+     * Estimate the cost of a sort-merge join, in the units of
+     * {@link JoinOptimizer#estimateJoinCost}: one scan of each child, the
+     * sorts of the children that are not sorted yet, and the merge.
+     *
+     * @param sorted1 true if the left child is already sorted on its join field
+     * @param sorted2 true if the right child is already sorted on its join field
+     */
+    public static double estimateCost(Predicate.Op op, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        double cost = cost1 + cost2;
+        if (!sorted1)
+            cost += estimateSortCost(card1, cost1);
+        if (!sorted2)
+            cost += estimateSortCost(card2, cost2);
+        //等值连接每个元组只看一次，范围连接每个元组要扫过对面的前缀
+        cost += card1 + card2;
+        if (op != Predicate.Op.EQUALS)
+            cost += (double) card1 * card2 / 2;
+        return cost;
+    }
+
+    private static double estimateSortCost(int card, double scanCost) {
+        double cost = card * (Math.log(Math.max(card, 2)) / Math.log(2));
+        //放不下内存时每个run写一遍、归并时再读一遍
+        if (card > ExternalSort.DEFAULT_MEMORY)
+            cost += 2 * scanCost;
+        return cost;
+    }
+
+    /**
+     * Set how many tuples are kept in memory by the sort of each child and by
+     * the buffered prefix of a range join.
+     */
+    public void setMemoryBudget(int tuples) {
+        this.memoryBudget = Math.max(1, tuples);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = new Input(child1, pred.getField1());
+        right = new Input(child2, pred.getField2());
+        left.open();
+        right.open();
+        //t1 > t2 时driver是child1，匹配的是child2的前缀；t1 < t2 时反过来
+        Predicate.Op op = pred.getOperator();
+        boolean driverIsLeft = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        driver = driverIsLeft ? left : right;
+        other = driverIsLeft ? right : left;
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        reset();
+        if (left != null)
+            left.close();
+        if (right != null)
+            right.close();
+        left = right = driver = other = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        reset();
+    }
+
+    private void reset() {
+        group = new ArrayList<Tuple>();
+        groupKey = null;
+        t1 = d = null;
+        groupPos = prefixPos = 0;
+        prefix = new ArrayList<Tuple>();
+        if (overflowReader != null)
+            overflowReader.close();
+        overflowReader = null;
+        if (overflow != null)
+            overflow.delete();
+        overflow = null;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples are the concatenation of a tuple of child1 and a
+     * tuple of child2, as in {@link Join}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return pred.getOperator() == Predicate.Op.EQUALS ? nextEquals() : nextRange();
+    }
+
+    private Tuple nextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && groupPos < group.size())
+                return merge(t1, group.get(groupPos++));
+            t1 = left.take();
+            if (t1 == null)
+                return null;
+            groupPos = 0;
+            Field k = t1.getField(pred.getField1());
+            //child1里相同的键连续出现，直接复用上一组
+            if (groupKey != null && k.compare(Predicate.Op.EQUALS, groupKey))
+                continue;
+            while (right.head != null && right.key().compare(Predicate.Op.LESS_THAN, k))
+                right.take();
+            group.clear();
+            groupKey = k;
+            while (right.head != null && right.key().compare(Predicate.Op.EQUALS, k))
+                group.add(right.take());
+            if (group.isEmpty() && right.head == null)
+                return null;
+        }
+    }
+
+    private Tuple nextRange() throws TransactionAbortedException, DbException {
+        Predicate.Op op = pred.getOperator();
+        Predicate.Op extend = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.LESS_THAN
+                ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+        while (true) {
+            if (d != null) {
+                if (prefixPos < prefix.size())
+                    return output(prefix.get(prefixPos++));
+                if (overflowReader != null) {
+                    Tuple o = overflowReader.next();
+                    if (o != null)
+                        return output(o);
+                    overflowReader.close();
+                    overflowReader = null;
+                }
+            }
+            d = driver.take();
+            if (d == null)
+                return null;
+            Field k = d.getField(driver.field);
+            while (other.head != null && other.key().compare(extend, k)) {
+                Tuple o = other.take();
+                if (prefix.size() < memoryBudget) {
+                    prefix.add(o);
+                } else {
+                    if (overflow == null)
+                        overflow = new SpillFile(o.getTupleDesc());
+                    overflow.add(o);
+                }
+            }
+            prefixPos = 0;
+            if (overflow != null)
+                overflowReader = overflow.reader();
+        }
+    }
+
+    private Tuple output(Tuple o) {
+        return driver == left ? merge(d, o) : merge(o, d);
+    }
+
+    /**
+     * One child in ascending order of its join field, with one tuple of
+     * lookahead in head.
+     */
+    private class Input {
+        final OpIterator child;
+        final int field;
+        final boolean presorted;
+        final TupleBatch batch = new TupleBatch();
+        int pos = 0;
+        ExternalSort sort;
+        ExternalSort.Cursor cursor;
+        Tuple head;
+
+        Input(OpIterator child, int field) {
+            this.child = child;
+            this.field = field;
+            this.presorted = isSortedOn(child, field);
+        }
+
+        void open() throws DbException, TransactionAbortedException {
+            child.open();
+            if (!presorted) {
+                sort = new ExternalSort(child.getTupleDesc(), new TupleComparator(child.getTupleDesc(), field, true), memoryBudget);
+                sort.addAll(child);
+                cursor = sort.sorted();
+            }
+            head = read();
+        }
+
+        Field key() {
+            return head.getField(field);
+        }
+
+        /** @return head, and move to the next tuple */
+        Tuple take() throws DbException, TransactionAbortedException {
+            Tuple t = head;
+            if (t != null)
+                head = read();
+            return t;
+        }
+
+        private Tuple read() throws DbException, TransactionAbortedException {
+            if (!presorted)
+                return cursor.next();
+            if (pos == batch.size()) {
+                pos = 0;
+                if (child.nextBatch(batch) == 0)
+                    return null;
+            }
+            return batch.get(pos++);
+        }
+
+        void rewind() throws DbException, TransactionAbortedException {
+            if (presorted) {
+                child.rewind();
+                batch.clear();
+                pos = 0;
+            } else {
+                cursor.close();
+                cursor = sort.sorted();
+            }
+            head = read();
+        }
+
+        void close() {
+            if (cursor != null)
+                cursor.close();
+            if (sort != null)
+                sort.clear();
+            child.close();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in memory and reads back later, e.g. a partition of a
+ * hash join. Tuples are stored back to back in their on-page format and are
+ * read back in the order they were added. The file is created on the first
+ * add() and removed by delete().
+ */
+public class SpillFile {
+    private final TupleDesc td;
+    private File file;
+    private DataOutputStream out;
+    private int size;
+
+    public SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    /** Append a tuple to the file */
+    public void add(Tuple t) throws DbException {
+        try {
+            if (out == null) {
+                if (file == null) {
+                    file = File.createTempFile("spill", ".dat");
+                    file.deleteOnExit();
+                }
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not spill tuple to " + file + ": " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** @return the number of tuples in the file */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Open a reader over all tuples added so far. Several readers may be
+     * open at once, e.g. to scan the file again.
+     */
+    public Reader reader() throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            return new Reader(size == 0 ? null
+                    : new DataInputStream(new BufferedInputStream(new FileInputStream(file))), size);
+        } catch (IOException e) {
+            throw new DbException("could not read spilled tuples from " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return an OpIterator over all tuples added so far, to feed them to
+     *         another operator, e.g. to join a partition of a hash join
+     *         recursively
+     */
+    public OpIterator scan() {
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+            private transient Reader reader;
+            private Tuple pending;
+
+            @Override
+            public void open() throws DbException {
+                reader = SpillFile.this.reader();
+            }
+
+            @Override
+            public boolean hasNext() throws DbException {
+                if (reader == null) return false;
+                if (pending == null) pending = reader.next();
+                return pending != null;
+            }
+
+            @Override
+            public Tuple next() throws DbException, NoSuchElementException {
+                if (!hasNext()) throw new NoSuchElementException();
+                Tuple t = pending;
+                pending = null;
+                return t;
+            }
+
+            @Override
+            public void rewind() throws DbException {
+                close();
+                open();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override
+            public void close() {
+                if (reader != null) reader.close();
+                reader = null;
+                pending = null;
+            }
+        };
+    }
+
+    /** Drop the tuples and remove the file */
+    public void delete() {
+        try {
+            if (out != null) out.close();
+        } catch (IOException e) {
+            //文件马上就删掉了，关闭失败无所谓
+        }
+        out = null;
+        if (file != null) file.delete();
+        file = null;
+        size = 0;
+    }
+
+    public class Reader implements Closeable {
+        private final DataInputStream in;
+        private int left;
+
+        private Reader(DataInputStream in, int size) {
+            this.in = in;
+            this.left = size;
+        }
+
+        /** @return the next tuple, or null after the last one */
+        public Tuple next() throws DbException {
+            if (left == 0) return null;
+            left--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("could not read spilled tuple from " + file + ": " + e.getMessage());
+            }
+            return t;
+        }
+
+        public void close() {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {
+                //只读的流，关闭失败无影响
+            }
+        }
+    }
+}
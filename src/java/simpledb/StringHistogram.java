@@ -1,92 +1,357 @@
 package simpledb;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
 /**
- * A class to represent a fixed-width histogram over a single String-based
+ * A class to represent an equi-depth histogram over a single String-based
  * field.
+ * <p>
+ * It is built the same way as {@link IntHistogram} -- a reservoir sample,
+ * a {@link HyperLogLog} sketch, most common values and equi-depth buckets --
+ * but over the whole strings, so strings that share a prefix are told apart.
+ * Within a bucket, the position of a string is interpolated from the
+ * characters after the prefix its bounds have in common.
  */
 public class StringHistogram {
-    final IntHistogram hist;
+    private final int buckets;
+    private final int capacity;
+    private String[] sample = new String[16];
+    private final HyperLogLog distinct = new HyperLogLog();
+    private final Random random = new Random(0x5EED);
+    private long count;
+    //加进来的值只是这么多行的样本，见scaleTo()
+    private long population;
+    //Algorithm L：下一个替换进样本的值的序号，以及当前的W
+    private long next;
+    private double w;
+
+    //build()的结果，同IntHistogram
+    private boolean built;
+    private boolean complete;
+    private long ndv;
+    //排好序的样本在build()之后就丢掉，只留下最小值、最大值和每个桶中间的值
+    private String min, max;
+    private String[] mids;
+    private String[] mcvs;
+    private double[] mcvFreqs, mcvCum;
+    private String[] lows, highs;
+    private double[] fracs, fracCum, ndvs;
 
     /**
      * Create a new StringHistogram with a specified number of buckets.
-     * <p>
-     * Our implementation is written in terms of an IntHistogram by converting
-     * each String to an integer.
-     * 
+     *
      * @param buckets
      *            the number of buckets
      */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        this.buckets = Math.max(1, buckets);
+        this.capacity = (int) Math.min((long) this.buckets * IntHistogram.SAMPLE_PER_BUCKET, IntHistogram.MAX_SAMPLE);
     }
 
-    /**
-     * Convert a string to an integer, with the property that if the return
-     * value(s1) < return value(s2), then s1 < s2
-     */
-    private int stringToInt(String s) {
-        int i;
-        int v = 0;
-        for (i = 3; i >= 0; i--) {
-            if (s.length() > 3 - i) {
-                int ci = (int) s.charAt(3 - i);
-                v += (ci) << (i * 8);
+    private long skip() {
+        return (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - w)) + 1;
+    }
+
+    /** Add a new value to thte histogram */
+    public void addValue(String s) {
+        built = false;
+        distinct.add(s);
+        if (count < capacity) {
+            if (count == sample.length)
+                sample = Arrays.copyOf(sample, (int) Math.min(capacity, count * 2));
+            sample[(int) count] = s;
+            if (count == capacity - 1) {
+                w = Math.exp(Math.log(1 - random.nextDouble()) / capacity);
+                next = count + skip();
             }
+        } else if (count == next) {
+            sample[random.nextInt(capacity)] = s;
+            w *= Math.exp(Math.log(1 - random.nextDouble()) / capacity);
+            next += skip();
         }
+        count++;
+    }
 
-        // XXX: hack to avoid getting wrong results for
-        // strings which don't output in the range min to max
-        if (!(s.equals("") || s.equals("zzzz"))) {
-            if (v < minVal()) {
-                v = minVal();
+    /** Sort the sample into most common values and equi-depth buckets */
+    private void build() {
+        if (built)
+            return;
+        built = true;
+        int s = (int) Math.min(count, capacity);
+        String[] v = Arrays.copyOf(sample, s);
+        Arrays.sort(v);
+        min = s == 0 ? null : v[0];
+        max = s == 0 ? null : v[s - 1];
+        int sampleNdv = 0;
+        int numMcvs = 0;
+        int[] runCounts = new int[s];
+        for (int i = 0; i < s; ) {
+            int j = i;
+            while (j < s && v[j].equals(v[i]))
+                j++;
+            runCounts[sampleNdv++] = j - i;
+            if (j - i >= 2 && (long) (j - i) * buckets >= s)
+                numMcvs++;
+            i = j;
+        }
+        mcvs = new String[numMcvs];
+        mcvFreqs = new double[numMcvs];
+        String[] rest = new String[s];
+        int restSize = 0, restNdv = 0;
+        for (int i = 0, r = 0, m = 0; i < s; i += runCounts[r++]) {
+            int c = runCounts[r];
+            if (c >= 2 && (long) c * buckets >= s) {
+                mcvs[m] = v[i];
+                mcvFreqs[m++] = (double) c / s;
+            } else {
+                System.arraycopy(v, i, rest, restSize, c);
+                restSize += c;
+                restNdv++;
             }
+        }
+        long rows = Math.max(count, population);
+        complete = count <= capacity && rows == count;
+        if (complete)
+            ndv = sampleNdv;
+        else if (rows == count)
+            ndv = Math.min(count, Math.max(sampleNdv, distinct.estimate()));
+        else {
+            //只读了一部分行：用样本里只出现一次的值数按Duj1估计全表的NDV
+            int f1 = 0;
+            for (int r = 0; r < sampleNdv; r++)
+                if (runCounts[r] == 1)
+                    f1++;
+            double duj1 = (double) s * sampleNdv / (s - f1 + (double) f1 * s / rows);
+            ndv = Math.min(rows, Math.max(Math.max(sampleNdv, distinct.estimate()), Math.round(duj1)));
+        }
+
+        int nb = Math.min(buckets, restNdv);
+        lows = new String[nb];
+        highs = new String[nb];
+        fracs = new double[nb];
+        ndvs = new double[nb];
+        double scale = complete || restNdv == 0 ? 1.0 : Math.max(1.0, (double) (ndv - numMcvs) / restNdv);
+        int b = 0;
+        for (int i = 0; i < restSize && b < nb; b++) {
+            long target = (long) restSize * (b + 1) / nb;
+            int start = i, d = 0;
+            do {
+                int j = i;
+                while (j < restSize && rest[j].equals(rest[i]))
+                    j++;
+                i = j;
+                d++;
+            } while (i < restSize && (i < target || b == nb - 1));
+            lows[b] = rest[start];
+            highs[b] = rest[i - 1];
+            fracs[b] = (double) (i - start) / s;
+            ndvs[b] = d * scale;
+        }
+        if (b < nb) {
+            lows = Arrays.copyOf(lows, b);
+            highs = Arrays.copyOf(highs, b);
+            fracs = Arrays.copyOf(fracs, b);
+            ndvs = Arrays.copyOf(ndvs, b);
+        }
+        mids = new String[b];
+        for (int i = 0; i < b; i++) {
+            int lo = Arrays.binarySearch(v, lows[i]), hi = Arrays.binarySearch(v, highs[i]);
+            mids[i] = v[(lo + hi) >>> 1];
+        }
+        mcvCum = cumulative(mcvFreqs);
+        fracCum = cumulative(fracs);
+    }
+
+    private static double[] cumulative(double[] a) {
+        double[] c = new double[a.length + 1];
+        for (int i = 0; i < a.length; i++)
+            c[i + 1] = c[i] + a[i];
+        return c;
+    }
 
-            if (v > maxVal()) {
-                v = maxVal();
+    /** Number of characters after the common prefix that position() reads */
+    private static final int DIGITS = 8;
+
+    /**
+     * @return where s lies between lo and hi, from 0 at lo to 1 at hi,
+     *         reading the first characters after the prefix lo and hi have
+     *         in common as digits, in the base spanned by the characters the
+     *         three strings use there
+     */
+    private static double position(String s, String lo, String hi) {
+        int p = 0;
+        while (p < lo.length() && p < hi.length() && lo.charAt(p) == hi.charAt(p))
+            p++;
+        //同PostgreSQL的convert_string_to_scalar：只用到数字时按十进制，而不是按65536进制
+        int cmin = Character.MAX_VALUE, cmax = 0;
+        for (String t : new String[] { s, lo, hi }) {
+            for (int i = p; i < Math.min(t.length(), p + DIGITS); i++) {
+                cmin = Math.min(cmin, t.charAt(i));
+                cmax = Math.max(cmax, t.charAt(i));
             }
         }
+        if (cmax < cmin)
+            return 0.5;
+        //多出的一位表示字符串已经结束，比任何字符都小
+        double base = cmax - cmin + 2;
+        double a = digits(lo, p, cmin, base), b = digits(hi, p, cmin, base), x = digits(s, p, cmin, base);
+        return b <= a ? 0.5 : Math.max(0, Math.min(1, (x - a) / (b - a)));
+    }
 
+    private static double digits(String s, int from, int cmin, double base) {
+        double v = 0, scale = 1;
+        for (int i = from; i < from + DIGITS; i++) {
+            scale /= base;
+            if (i < s.length())
+                v += (s.charAt(i) - cmin + 1) * scale;
+        }
         return v;
     }
 
-    /** @return the maximum value indexed by the histogram */
-    int maxVal() {
-        return stringToInt("zzzz");
+    private int bucketOf(String v) {
+        int i = Arrays.binarySearch(lows, v);
+        return i < 0 ? -i - 2 : i;
     }
 
-    /** @return the minimum value indexed by the histogram */
-    int minVal() {
-        return stringToInt("");
+    /** @return the fraction of the values equal to v */
+    private double equal(String v) {
+        if (count == 0 || complete && (v.compareTo(min) < 0 || v.compareTo(max) > 0))
+            return 0;
+        int m = Arrays.binarySearch(mcvs, v);
+        if (m >= 0)
+            return mcvFreqs[m];
+        int b = bucketOf(v);
+        if (b >= 0 && v.compareTo(highs[b]) <= 0)
+            return fracs[b] / ndvs[b];
+        if (complete || lows.length == 0)
+            return 0;
+        b = Math.max(b, 0);
+        return fracs[b] / ndvs[b];
     }
 
-    /** Add a new value to thte histogram */
-    public void addValue(String s) {
-        int val = stringToInt(s);
-        hist.addValue(val);
+    /** @return the fraction of the values less than v */
+    private double below(String v) {
+        if (count == 0)
+            return 0;
+        int m = Arrays.binarySearch(mcvs, v);
+        double f = mcvCum[m >= 0 ? m : -m - 1];
+        int b = bucketOf(v);
+        if (b >= 0) {
+            f += fracCum[b];
+            if (v.compareTo(highs[b]) > 0)
+                f += fracs[b];
+            else
+                f += fracs[b] * position(v, lows[b], highs[b]) * ndvs[b] / (ndvs[b] + 1);
+        }
+        return f;
+    }
+
+    /** @return the fraction of the sampled values that contain v */
+    private double containing(String v) {
+        int s = (int) Math.min(count, capacity);
+        if (s == 0)
+            return 0;
+        int n = 0;
+        for (int i = 0; i < s; i++)
+            if (sample[i].indexOf(v) >= 0)
+                n++;
+        return (double) n / s;
     }
 
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
-     * 
+     *
      * @param op
      *            The operation being applied
      * @param s
      *            The string to apply op to
      */
     public double estimateSelectivity(Predicate.Op op, String s) {
-        int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
+        build();
+        if (count == 0)
+            return op == Predicate.Op.NOT_EQUALS ? 1.0 : 0.0;
+        double sel;
+        switch (op) {
+        case EQUALS:
+            sel = equal(s);
+            break;
+        case LIKE:
+            sel = containing(s);
+            break;
+        case NOT_EQUALS:
+            sel = 1 - equal(s);
+            break;
+        case LESS_THAN:
+            sel = below(s);
+            break;
+        case LESS_THAN_OR_EQ:
+            sel = below(s) + equal(s);
+            break;
+        case GREATER_THAN:
+            sel = 1 - below(s) - equal(s);
+            break;
+        case GREATER_THAN_OR_EQ:
+            sel = 1 - below(s);
+            break;
+        default:
+            sel = 1.0;
+        }
+        return Math.max(0.0, Math.min(1.0, sel));
     }
 
     /**
      * @return the average selectivity of this histogram.
-     * 
+     *
      *         This is not an indispensable method to implement the basic join
      *         optimization. It may be needed if you want to implement a more
      *         efficient optimization
      * */
     public double avgSelectivity() {
-        return hist.avgSelectivity();
+        build();
+        return ndv == 0 ? 1.0 : 1.0 / ndv;
+    }
+
+    /**
+     * Tell the histogram that the values added so far are a sample of rows
+     * values, so that the number of distinct values is estimated for all of
+     * them rather than for the sample.
+     */
+    public void scaleTo(long rows) {
+        built = false;
+        population = rows;
+    }
+
+    /** @return the estimated number of distinct values, of all rows if
+        scaleTo() was called */
+    public long distinctValues() {
+        build();
+        return ndv;
+    }
+
+    /** @return the most common values, in ascending order, with the fraction
+        of the values equal to each */
+    public Map<Field, Double> mostCommonValues() {
+        build();
+        Map<Field, Double> m = new LinkedHashMap<Field, Double>();
+        for (int i = 0; i < mcvs.length; i++)
+            m.put(new StringField(mcvs[i], Type.STRING_LEN), mcvFreqs[i]);
+        return m;
+    }
+
+    /** @return the most common values and the middle sampled value of each
+        bucket, with the fraction of the values each stands for */
+    public Map<Field, Double> points() {
+        build();
+        Map<Field, Double> m = mostCommonValues();
+        for (int b = 0; b < lows.length; b++) {
+            Field mid = new StringField(mids[b], Type.STRING_LEN);
+            Double f = m.get(mid);
+            m.put(mid, f == null ? fracs[b] : f + fracs[b]);
+        }
+        return m;
     }
 }
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * TupleBatch is a reusable block of tuples handed from one operator to the
+ * next by {@link OpIterator#nextBatch}. The caller owns the batch and passes
+ * the same one in on every call, so a query allocates no container per row.
+ * <p>
+ * Only the container is reused: the tuples in it are not overwritten by the
+ * next call and may be kept by the caller.
+ */
+public class TupleBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples in a batch unless the caller asks for another size. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final Tuple[] tuples;
+    private int size;
+
+    public TupleBatch() {
+        this(DEFAULT_SIZE);
+    }
+
+    public TupleBatch(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.tuples = new Tuple[capacity];
+    }
+
+    public int capacity() {
+        return tuples.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == tuples.length;
+    }
+
+    /** @return the ith tuple of the batch, i < size() */
+    public Tuple get(int i) {
+        if (i >= size) throw new IndexOutOfBoundsException(i + " >= " + size);
+        return tuples[i];
+    }
+
+    /** Replace the ith tuple of the batch, i < size() */
+    public void set(int i, Tuple t) {
+        if (i >= size) throw new IndexOutOfBoundsException(i + " >= " + size);
+        tuples[i] = t;
+    }
+
+    /** Append a tuple; the batch must not be full */
+    public void add(Tuple t) {
+        if (size == tuples.length) throw new IllegalStateException("batch is full");
+        tuples[size++] = t;
+    }
+
+    /** Keep only the first n tuples */
+    public void truncate(int n) {
+        if (n > size) throw new IndexOutOfBoundsException(n + " > " + size);
+        //释放引用，避免批次被复用时拖住已经交出去的元组
+        Arrays.fill(tuples, n, size, null);
+        size = n;
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * TupleComparator orders tuples by one or more fields, each ascending or
+ * descending. The field types are looked up once in the TupleDesc, so a
+ * comparison reads int fields directly and compares string fields char by
+ * char, without going through {@link Field#compare} and without allocating.
+ * <p>
+ * {@link #sort} additionally computes a normalized key of the first sort
+ * field per tuple, a long that orders like the field itself, and only
+ * compares the tuples when the keys are equal.
+ */
+public class TupleComparator implements Comparator<Tuple>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private final boolean[] isInt;
+
+    public TupleComparator(TupleDesc td, int field, boolean asc) {
+        this(td, new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * @param td the TupleDesc of the tuples to compare
+     * @param fields the sort fields, most significant first
+     * @param asc for each sort field, true if it is sorted ascending
+     */
+    public TupleComparator(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need one direction for each of at least one sort field");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.isInt = new boolean[fields.length];
+        for (int k = 0; k < fields.length; k++)
+            isInt[k] = td.getFieldType(fields[k]) == Type.INT_TYPE;
+    }
+
+    public int compare(Tuple a, Tuple b) {
+        for (int k = 0; k < fields.length; k++) {
+            int f = fields[k];
+            int c;
+            if (isInt[k])
+                c = Integer.compare(((IntField) a.getField(f)).getValue(), ((IntField) b.getField(f)).getValue());
+            else
+                c = ((StringField) a.getField(f)).getValue().compareTo(((StringField) b.getField(f)).getValue());
+            if (c != 0)
+                return asc[k] ? c : -c;
+        }
+        return 0;
+    }
+
+    /**
+     * @return a key of the first sort field such that a tuple with a smaller
+     *         key, compared unsigned, comes first. Equal keys decide nothing.
+     */
+    public long normalizedKey(Tuple t) {
+        long key;
+        if (isInt[0]) {
+            //翻转符号位，有符号int的顺序变成无符号的顺序
+            key = (((IntField) t.getField(fields[0])).getValue() ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+        } else {
+            //前4个字符，每个16位，不足的补0
+            String s = ((StringField) t.getField(fields[0])).getValue();
+            key = 0;
+            for (int i = 0; i < 4; i++)
+                key = (key << 16) | (i < s.length() ? s.charAt(i) : 0);
+        }
+        return asc[0] ? key : ~key;
+    }
+
+    /** @return true if equal normalized keys mean equal tuples in this order */
+    private boolean keyIsExact() {
+        return fields.length == 1 && isInt[0];
+    }
+
+    /**
+     * Sort a list in place, stably, comparing normalized keys first.
+     */
+    public void sort(List<Tuple> list) {
+        int n = list.size();
+        if (n < 2)
+            return;
+        Tuple[] ts = list.toArray(new Tuple[n]);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = normalizedKey(ts[i]);
+        mergeSort(ts, keys, new Tuple[n], new long[n], 0, n);
+        for (int i = 0; i < n; i++)
+            list.set(i, ts[i]);
+    }
+
+    private int compare(Tuple a, long ka, Tuple b, long kb) {
+        int c = Long.compareUnsigned(ka, kb);
+        if (c != 0 || keyIsExact())
+            return c;
+        return compare(a, b);
+    }
+
+    private void mergeSort(Tuple[] ts, long[] keys, Tuple[] tmp, long[] tmpKeys, int from, int to) {
+        if (to - from <= 16) {
+            //小段用插入排序
+            for (int i = from + 1; i < to; i++) {
+                Tuple t = ts[i];
+                long k = keys[i];
+                int j = i - 1;
+                while (j >= from && compare(ts[j], keys[j], t, k) > 0) {
+                    ts[j + 1] = ts[j];
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                ts[j + 1] = t;
+                keys[j + 1] = k;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(ts, keys, tmp, tmpKeys, from, mid);
+        mergeSort(ts, keys, tmp, tmpKeys, mid, to);
+        if (compare(ts[mid - 1], keys[mid - 1], ts[mid], keys[mid]) <= 0)
+            return;
+        System.arraycopy(ts, from, tmp, from, to - from);
+        System.arraycopy(keys, from, tmpKeys, from, to - from);
+        int i = from, j = mid, o = from;
+        while (i < mid && j < to) {
+            //相等时取左半边的，保持稳定
+            if (compare(tmp[j], tmpKeys[j], tmp[i], tmpKeys[i]) < 0) {
+                ts[o] = tmp[j];
+                keys[o++] = tmpKeys[j++];
+            } else {
+                ts[o] = tmp[i];
+                keys[o++] = tmpKeys[i++];
+            }
+        }
+        while (i < mid) {
+            ts[o] = tmp[i];
+            keys[o++] = tmpKeys[i++];
+        }
+        while (j < to) {
+            ts[o] = tmp[j];
+            keys[o++] = tmpKeys[j++];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). Pages referenced for the first
+ * time go to the FIFO queue A1in; when they are evicted from there only
+ * their id is remembered in the ghost queue A1out. A page that is loaded
+ * again while its id is in A1out has proven to be re-referenced and is put
+ * into the LRU queue Am. Sequential scans therefore only ever cycle through
+ * A1in and never disturb the hot pages in Am.
+ */
+public class TwoQReplacementPolicy implements ReplacementPolicy {
+    private final int kin;
+    private final int kout;
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+
+    /**
+     * Uses the sizes suggested in the paper: A1in holds 25% of the pool and
+     * A1out remembers as many ids as half of the pool.
+     *
+     * @param numPages number of frames of the BufferPool using this policy
+     */
+    public TwoQReplacementPolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param kin target size of A1in
+     * @param kout maximum number of ids remembered in A1out
+     */
+    public TwoQReplacementPolicy(int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+        a1in = new LinkedHashSet<>();
+        a1out = new LinkedHashSet<>();
+        am = new LinkedHashSet<>();
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (am.contains(pid) || a1in.contains(pid)) {
+            pageHit(pid);
+            return;
+        }
+        if (a1out.remove(pid)) am.add(pid);
+        else a1in.add(pid);
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        //A1in中的page被再次访问时不做任何调整，避免短时间内的相关访问被当成热点
+        if (am.remove(pid)) am.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin) victim = firstEvictable(a1in, evictable);
+        if (victim == null) victim = firstEvictable(am, evictable);
+        if (victim == null) victim = firstEvictable(a1in, evictable);
+        return victim;
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> queue, Evictable evictable) {
+        for (PageId pid : queue) {
+            if (evictable.canEvict(pid)) return pid;
+        }
+        return null;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) {
+            return new IntField(buf.getInt());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +48,18 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            int start = buf.position();
+            int strLen = buf.getInt();
+            if (strLen < 0 || strLen > STRING_LEN)
+                throw new ParseException("couldn't parse", start);
+            byte bs[] = new byte[strLen];
+            buf.get(bs);
+            buf.position(start + getLen());
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +78,11 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * Same as {@link #parse(DataInputStream)}, reading at the buffer's
+   * position and advancing it by getLen() bytes. Used to parse pages
+   * straight out of a (possibly memory mapped) buffer.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
@@ -176,6 +177,68 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() with two group-by fields and several
+   * aggregates computed in one pass
+   */
+  @Test public void multiGroupMultiAggregate() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 2, 4,
+                    1, 1, 6,
+                    3, 1, 2,
+                    1, 2, 8,
+                    3, 1, 7 });
+    Aggregate op = new Aggregate(scan, new int[] { 0, 1 }, new int[] { 2, 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MAX });
+    assertEquals(5, op.getTupleDesc().numFields());
+    OpIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 1, 8, 2, 6,
+                    1, 2, 12, 2, 8,
+                    3, 1, 9, 2, 7 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() over a child sorted on the group-by
+   * field, which returns each group as soon as the next one starts
+   */
+  @Test public void streamingAggregate() throws Exception {
+    OrderBy sorted = new OrderBy(0, false, scan1);
+    Aggregate op = new Aggregate(sorted, 1, 0, Aggregator.Op.SUM);
+    assertTrue(op.isStreaming());
+    assertFalse(new Aggregate(scan1, 1, 0, Aggregator.Op.SUM).isStreaming());
+    // a filter keeps the order of its child
+    Filter filtered = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(0)), sorted);
+    assertTrue(new Aggregate(filtered, 1, 0, Aggregator.Op.SUM).isStreaming());
+    op.open();
+    // the first group is the largest key, since the child is descending
+    assertEquals(new IntField(5), op.next().getField(0));
+    op.rewind();
+    sum.open();
+    TestUtil.matchAllTuples(sum, op);
+    op.close();
+
+    // grouped by both fields of a child sorted on them in another order
+    sorted = new OrderBy(new int[] { 1, 0 }, new boolean[] { true, true }, scan1, OrderBy.NO_LIMIT);
+    op = new Aggregate(sorted, new int[] { 0, 1 }, new int[] { 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT });
+    assertTrue(op.isStreaming());
+    OpIterator expected = TestUtil.createTupleList(3,
+        new int[] { 1, 2, 1,
+                    1, 4, 1,
+                    1, 6, 1,
+                    3, 2, 1,
+                    3, 4, 1,
+                    3, 6, 1,
+                    5, 7, 1 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
   /**
    * JUnit suite target
    */
@@ -83,6 +83,22 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Leaf pages read through the memory mapped path match the normal ones
+	 */
+	@Test
+	public void readLeafPageMemoryMapped() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		BTreePageId leafPid = new BTreePageId(twoLeafPageFile.getId(), 2, BTreePageId.LEAF);
+		BTreeLeafPage leaf = (BTreeLeafPage) twoLeafPageFile.readPage(leafPid);
+		twoLeafPageFile.setMemoryMapped(true);
+		BTreeLeafPage mapped = (BTreeLeafPage) twoLeafPageFile.readPage(leafPid);
+		assertArrayEquals(leaf.getPageData(), mapped.getPageData());
+		assertEquals(leaf.getNumEmptySlots(), mapped.getNumEmptySlots());
+		assertEquals(leaf.getRightSiblingId(), mapped.getRightSiblingId());
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
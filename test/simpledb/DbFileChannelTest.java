@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for DbFileChannel.write(), read() and length()
+     */
+    @Test public void readWriteLength() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        assertEquals(0, channel.length());
+
+        channel.write(8, new byte[] { 1, 2, 3, 4 });
+        assertEquals(12, channel.length());
+        assertEquals(12, f.length());
+        channel.write(0, new byte[] { 9 });
+        assertEquals(12, channel.length());
+
+        byte[] buf = new byte[4];
+        assertEquals(4, channel.read(8, buf));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, buf);
+        // reads stop at the end of the file
+        buf = new byte[4];
+        assertEquals(2, channel.read(10, buf));
+        assertArrayEquals(new byte[] { 3, 4, 0, 0 }, buf);
+        assertEquals(0, channel.read(12, buf));
+
+        // a new channel on the same file picks up the length from disk
+        channel.close();
+        assertEquals(12, new DbFileChannel(f).length());
+    }
+
+    /**
+     * length() sees writes made behind the channel's back, and a closed
+     * channel opens the file again when it is used
+     */
+    @Test public void externalWrite() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        channel.write(0, new byte[] { 1, 2 });
+        try (FileOutputStream os = new FileOutputStream(f, true)) {
+            os.write(new byte[] { 3, 4, 5 });
+        }
+        assertEquals(5, channel.length());
+
+        channel.close();
+        byte[] buf = new byte[5];
+        assertEquals(5, channel.read(0, buf));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, buf);
+    }
+
+    /**
+     * length() and read() do not create a missing file, only write() does
+     */
+    @Test public void missingFile() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        f.delete();
+        DbFileChannel channel = new DbFileChannel(f);
+        assertEquals(0, channel.length());
+        assertFalse(f.exists());
+        try {
+            channel.read(0, new byte[4]);
+            fail("read of a missing file should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(f.exists());
+        channel.write(0, new byte[] { 1 });
+        assertEquals(1, channel.length());
+        channel.close();
+    }
+
+    /**
+     * A thread interrupted during I/O still finishes its reads and leaves the
+     * channel usable for other threads
+     */
+    @Test public void interruptedRead() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        final DbFileChannel channel = new DbFileChannel(f);
+        channel.write(0, new byte[1 << 16]);
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread reader = new Thread() {
+            public void run() {
+                byte[] buf = new byte[1 << 16];
+                try {
+                    while (!stop.get()) {
+                        channel.read(0, buf);
+                        reads.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // reads stops growing and the test fails
+                }
+            }
+        };
+        reader.start();
+        //多次interrupt，让其中一些落在读的过程中
+        for (int i = 0; i < 200; i++) {
+            reader.interrupt();
+            Thread.sleep(1);
+        }
+        int before = reads.get();
+        Thread.sleep(200);
+        assertTrue("reads stalled after interrupts", reads.get() > before);
+        stop.set(true);
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertEquals(1 << 16, channel.read(0, new byte[1 << 16]));
+        channel.close();
+    }
+
+    /**
+     * Unit test for DbFileChannel.map()
+     */
+    @Test public void map() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        channel.write(0, new byte[] { 1, 2, 3, 4 });
+        ByteBuffer view = channel.map(1, 2);
+        assertEquals(2, view.remaining());
+        assertEquals(2, view.get(0));
+        // writes through the channel show through the mapping
+        channel.write(1, new byte[] { 5 });
+        assertEquals(5, view.get(0));
+        assertNull(channel.map(2, 4));
+        // the mapping follows the file as it grows
+        channel.write(4, new byte[] { 6, 7 });
+        assertEquals(7, channel.map(2, 4).get(3));
+    }
+
+    /**
+     * An interrupted thread can still do I/O and keeps its interrupt status
+     */
+    @Test public void interruptedThread() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        Thread.currentThread().interrupt();
+        try {
+            channel.write(0, new byte[] { 7 });
+            byte[] buf = new byte[1];
+            assertEquals(1, channel.read(0, buf));
+            assertEquals(7, buf[0]);
+        } finally {
+            assertEquals(true, Thread.interrupted());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
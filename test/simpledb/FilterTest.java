@@ -120,6 +120,44 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.nextBatch(), mixed with next()
+   */
+  @Test public void filterBatch() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(2));
+    Filter op = new Filter(pred, scan);
+    TupleBatch batch = new TupleBatch(3);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-5, testWidth), op.next()));
+    int v = -4;
+    while (op.nextBatch(batch) > 0) {
+      for (int i = 0; i < batch.size(); i++)
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(v++, testWidth), batch.get(i)));
+    }
+    assertEquals(2, v);
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for Filter.nextColumns()
+   */
+  @Test public void filterColumns() throws Exception {
+    Predicate pred = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(3));
+    Filter op = new Filter(pred, scan);
+    ColumnBatch batch = new ColumnBatch(op.getTupleDesc(), 4);
+    op.open();
+    int v = 3;
+    while (op.nextColumns(batch) > 0) {
+      for (int i = 0; i < batch.size(); i++, v++) {
+        assertEquals(v, batch.getInt(0, i));
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(v, testWidth), batch.getTuple(i)));
+      }
+    }
+    assertEquals(5, v);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
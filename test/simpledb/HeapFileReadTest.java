@@ -77,6 +77,29 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * The memory mapped read path parses the same page as the normal one,
+     * and the page's before image survives writes to the file
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        hf.setMemoryMapped(true);
+        HeapPage mapped = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(page.getPageData(), mapped.getPageData());
+
+        mapped.deleteTuple(mapped.iterator().next());
+        mapped.markDirty(true, tid);
+        hf.writePage(mapped);
+        assertEquals(485, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        assertEquals(484, mapped.getBeforeImage().getNumEmptySlots());
+
+        // past the end of the file there is nothing to map
+        HeapPage empty = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), hf.numPages()));
+        assertEquals(504, empty.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
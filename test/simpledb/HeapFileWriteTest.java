@@ -4,6 +4,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
@@ -43,6 +46,68 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts skip pages the free space map knows to be full, and the map
+     * survives reopening the file
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        for (int i = 0; i < 2 * 504 + 1; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        assertEquals(2, empty.freeSpace.nextNotFull(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertTrue(reopened.freeSpace.isFull(0));
+        assertTrue(reopened.freeSpace.isFull(1));
+        assertFalse(reopened.freeSpace.isFull(2));
+
+        // a delete makes room on page 1, the next insert goes there
+        tid = new TransactionId();
+        Tuple victim = null;
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        for (int i = 0; i < 505; i++) victim = it.next();
+        it.close();
+        assertEquals(1, victim.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, reopened.numPages());
+    }
+
+    /**
+     * A side file that does not match the heap file any more is deleted, and
+     * so is the side file of a heap file that is written anew
+     */
+    @Test public void staleFreeSpaceMap() throws Exception {
+        for (int i = 0; i < 504; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        File fsm = new File(empty.getFile().getPath() + ".fsm");
+        assertTrue(fsm.exists());
+
+        // the heap file grew behind the map's back
+        try (RandomAccessFile raf = new RandomAccessFile(empty.getFile(), "rw")) {
+            raf.setLength(2 * BufferPool.getPageSize());
+        }
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertFalse(fsm.exists());
+        assertFalse(reopened.freeSpace.isFull(0));
+
+        // a new file written in its place does not inherit the old map
+        tid = new TransactionId();
+        for (int i = 0; i < 504; ++i)
+            Database.getBufferPool().insertTuple(tid, reopened.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(fsm.exists());
+        HeapFile recreated = Utility.createEmptyHeapFile(empty.getFile().getPath(), 2);
+        assertFalse(fsm.exists());
+        assertFalse(recreated.freeSpace.isFull(0));
+        tid = new TransactionId();
+    }
+
     /**
      * JUnit suite target
      */
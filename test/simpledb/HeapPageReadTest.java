@@ -120,6 +120,33 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.decodeColumns(), before and after the page is
+     * modified
+     */
+    @Test public void decodeColumns() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        ColumnBatch batch = new ColumnBatch(Utility.getTupleDesc(2), 8);
+        int slot = 0, row = 0;
+        while (slot < 504) {
+            batch.clear();
+            slot = page.decodeColumns(batch, slot);
+            for (int i = 0; i < batch.size(); i++, row++) {
+                assertEquals(EXAMPLE_VALUES[row][0], batch.getInt(0, i));
+                assertEquals(EXAMPLE_VALUES[row][1], batch.getInt(1, i));
+            }
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+
+        page.deleteTuple(page.iterator().next());
+        batch = new ColumnBatch(Utility.getTupleDesc(2), 32);
+        assertEquals(504, page.decodeColumns(batch, 0));
+        assertEquals(EXAMPLE_VALUES.length - 1, batch.size());
+        assertEquals(EXAMPLE_VALUES[1][1], batch.ints(1)[0]);
+        //物化出来的行和元组路径一样带着RecordId
+        assertEquals(page.iterator().next().getRecordId(), batch.getTuple(0).getRecordId());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,60 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class HyperLogLogTest {
+
+	/** Relative error allowed: three standard errors of 2^12 registers */
+	private static final double ERROR = 3 * 1.04 / 64;
+
+	private static void assertClose(long expected, long estimate) {
+		Assert.assertTrue("estimated " + estimate + " for " + expected,
+				Math.abs(estimate - expected) <= ERROR * expected);
+	}
+
+	/**
+	 * Test that small counts are nearly exact, duplicates included.
+	 */
+	@Test public void smallCardinalityTest() {
+		HyperLogLog h = new HyperLogLog();
+		Assert.assertEquals(0, h.estimate());
+		for (int round = 0; round < 10; round++)
+			for (int i = 0; i < 100; i++)
+				h.add(i);
+		Assert.assertEquals(100, h.estimate(), 2);
+	}
+
+	/**
+	 * Test large counts of ints and of strings.
+	 */
+	@Test public void largeCardinalityTest() {
+		HyperLogLog ints = new HyperLogLog();
+		for (int i = 0; i < 1000000; i++)
+			ints.add(i * 7);
+		assertClose(1000000, ints.estimate());
+
+		HyperLogLog strings = new HyperLogLog();
+		for (int i = 0; i < 50000; i++)
+			strings.add("value" + i);
+		assertClose(50000, strings.estimate());
+	}
+
+	/**
+	 * Test that a merged sketch counts the union of the values once.
+	 */
+	@Test public void mergeTest() {
+		HyperLogLog a = new HyperLogLog(), b = new HyperLogLog();
+		for (int i = 0; i < 60000; i++)
+			a.add(i);
+		for (int i = 40000; i < 100000; i++)
+			b.add(i);
+		long before = a.estimate();
+		a.merge(new HyperLogLog());
+		Assert.assertEquals(before, a.estimate());
+		a.merge(b);
+		assertClose(100000, a.estimate());
+		// b is left as it was
+		assertClose(60000, b.estimate());
+	}
+}
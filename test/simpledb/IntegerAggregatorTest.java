@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.util.NoSuchElementException;
 
@@ -63,6 +64,86 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     };
   }
 
+  /**
+   * Test IntegerAggregator.mergeColumns(), mixed with mergeTupleIntoGroup()
+   */
+  @Test public void mergeColumns() throws Exception {
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    agg.mergeTupleIntoGroup(scan1.next());
+    ColumnBatch batch = new ColumnBatch(scan1.getTupleDesc(), 4);
+    while (scan1.nextColumns(batch) > 0)
+      agg.mergeColumns(batch);
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[] { 1, 3, 3, 3, 5, 1 }), it);
+  }
+
+  /**
+   * Test IntegerAggregator with more groups than its memory budget, so most
+   * groups are spilled and aggregated partition by partition
+   */
+  @Test public void spill() throws Exception {
+    int[] values = new int[2000 * 2];
+    for (int i = 0; i < 2000; i++) {
+      values[2 * i] = i % 500;
+      values[2 * i + 1] = i;
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, values);
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    agg.setMemoryBudget(4);
+    agg.mergeTupleIntoGroup(scan.next());
+    ColumnBatch batch = new ColumnBatch(scan.getTupleDesc(), 100);
+    while (scan.nextColumns(batch) > 0)
+      agg.mergeColumns(batch);
+
+    int[] expected = new int[500 * 2];
+    for (int k = 0; k < 500; k++) {
+      expected[2 * k] = k;
+      // k + (k + 500) + (k + 1000) + (k + 1500)
+      expected[2 * k + 1] = 4 * k + 3000;
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    assertEquals(500, n);
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+    agg.clear();
+  }
+
+  /**
+   * Test that IntegerAggregator sums in longs: an AVG whose sum overflows an
+   * int is exact, and a SUM that does not fit an int is an error
+   */
+  @Test public void longAccumulators() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE, 1, Integer.MAX_VALUE - 2 });
+    IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator sum = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      avg.mergeTupleIntoGroup(t);
+      sum.mergeTupleIntoGroup(t);
+    }
+    OpIterator it = avg.iterator();
+    it.open();
+    assertEquals(Integer.MAX_VALUE - 1, ((IntField) it.next().getField(1)).getValue());
+    it = sum.iterator();
+    it.open();
+    try {
+      it.next();
+      fail("expected the SUM to overflow");
+    } catch (DbException e) {
+      // explicitly ignored
+    }
+  }
+
   /**
    * Test IntegerAggregator.mergeTupleIntoGroup() and iterator() over a sum
    */
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how long JoinOptimizer.orderJoins takes to plan chain and star
+ * joins of 6 to 16 relations, by dynamic programming and greedily. Every
+ * relation is a small random table of its own size, so the plans differ.
+ * Run with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.JoinOptimizerBenchmark [runs]
+ * </pre>
+ * It is not a JUnit test, so ant test does not pick it up.
+ */
+public class JoinOptimizerBenchmark {
+    private static final int MIN_RELATIONS = 6;
+    private static final int MAX_RELATIONS = 16;
+
+    private static final HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    private static final HashMap<String, Double> selectivities = new HashMap<String, Double>();
+
+    /** @return the joins of t0 with each other table if star, else of each table with the next */
+    private static Vector<LogicalJoinNode> joins(int relations, boolean star) {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < relations; i++)
+            joins.add(new LogicalJoinNode(star ? "t0" : "t" + (i - 1), "t" + i,
+                    "c" + (i % 2), "c" + (i % 2), Predicate.Op.EQUALS));
+        return joins;
+    }
+
+    /** @return the median time in microseconds of planning the joins of relations tables */
+    private static long plan(int relations, boolean star, boolean dp, int runs) throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        for (int i = 0; i < relations; i++)
+            lp.addScan(Database.getCatalog().getTableId("t" + i), "t" + i);
+        long[] times = new long[runs];
+        for (int r = 0; r < runs; r++) {
+            JoinOptimizer jo = new JoinOptimizer(lp, joins(relations, star));
+            jo.setMaxDpTables(dp ? Integer.MAX_VALUE : 0);
+            long start = System.nanoTime();
+            jo.orderJoins(stats, selectivities, false);
+            times[r] = (System.nanoTime() - start) / 1000;
+        }
+        java.util.Arrays.sort(times);
+        return times[runs / 2];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        for (int i = 0; i < MAX_RELATIONS; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (i + 1), 1000, null, null, "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+            selectivities.put("t" + i, 1.0);
+        }
+        // warm up the JIT before measuring
+        plan(MAX_RELATIONS - 4, false, true, runs);
+        System.out.println("relations\tchain dp us\tchain greedy us\tstar dp us\tstar greedy us");
+        for (int n = MIN_RELATIONS; n <= MAX_RELATIONS; n++)
+            System.out.printf("%d\t%d\t%d\t%d\t%d%n", n, plan(n, false, true, runs), plan(n, false, false, runs),
+                    plan(n, true, true, runs), plan(n, true, false, runs));
+    }
+}
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -265,6 +267,42 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Verify that the cardinality of a join on a skewed, non-key column
+     * follows the most common values in the statistics: half of one table
+     * and a fifth of the other hold the same value, so the equi-join is a
+     * hundred times larger than either table.
+     */
+    @Test
+    public void estimateSkewedJoinCardinality() throws Exception {
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> b = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            a.add(new ArrayList<Integer>(Collections.singletonList(i < 500 ? 0 : i - 499)));
+            b.add(new ArrayList<Integer>(Collections.singletonList(i < 200 ? 0 : i - 199)));
+        }
+        Database.getCatalog().addTable(createDuplicateHeapFile(a, 1, "c"), "SA");
+        Database.getCatalog().addTable(createDuplicateHeapFile(b, 1, "c"), "SB");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("SA", new TableStats(Database.getCatalog().getTableId("SA"), 19));
+        stats.put("SB", new TableStats(Database.getCatalog().getTableId("SB"), 19));
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(new TransactionId(),
+                "SELECT * FROM SA t1, SB t2 WHERE t1.c0 = t2.c0;"), new Vector<LogicalJoinNode>());
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            long actual = 0;
+            for (ArrayList<Integer> x : a)
+                for (ArrayList<Integer> y : b)
+                    if (new IntField(x.get(0)).compare(op, new IntField(y.get(0))))
+                        actual++;
+            int cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1", "t2", "c0", "c0", op),
+                    1000, 1000, false, false, stats);
+            Assert.assertEquals(op.toString(), actual, cardinality, actual * 0.05);
+        }
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -621,4 +659,119 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Equality joins of plain scans become hash joins, and the hash and block
+     * nested-loop costs charge what those operators read
+     */
+    @Test
+    public void joinAlgorithmTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        LogicalJoinNode equals = new LogicalJoinNode(tableName1, tableName2, "c1", "c2", Predicate.Op.EQUALS);
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(equals, new SeqScan(tid, tableId1, tableName1),
+                new SeqScan(tid, tableId2, tableName2)) instanceof HashEquiJoin);
+        LogicalJoinNode notEquals = new LogicalJoinNode(tableName1, tableName2, "c1", "c2", Predicate.Op.NOT_EQUALS);
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(notEquals, new SeqScan(tid, tableId1, tableName1),
+                new SeqScan(tid, tableId2, tableName2)) instanceof Join);
+
+        // block nested loops scans the inner side once per block of outer tuples
+        int size = Database.getCatalog().getTupleDesc(tableId1).getSize();
+        int block = Join.tuplesPerBlock(size, Join.DEFAULT_BLOCK_PAGES);
+        Assert.assertEquals(10 + 3 * 100 + 3.0 * block * 5, Join.estimateCost(3 * block, 5, 10, 100, size), 1e-9);
+        Assert.assertEquals(10 + 4 * 100 + (3.0 * block + 1) * 5, Join.estimateCost(3 * block + 1, 5, 10, 100, size), 1e-9);
+        // the hash join reads each side once, and writes and reads both again once the build side overflows
+        Assert.assertEquals(10 + 100 + 1000 + 5, HashEquiJoin.estimateCost(1000, 5, 10, 100, size), 1e-9);
+        int big = HashEquiJoin.MEMORY_BUDGET / size + 1;
+        Assert.assertEquals(3 * (10 + 100) + big + 5, HashEquiJoin.estimateCost(big, 5, 10, 100, size), 1e-9);
+    }
+
+    /**
+     * A table without statistics or filter selectivity is reported by name
+     * instead of failing with a NullPointerException.
+     */
+    @Test
+    public void missingStatisticsTest() throws ParsingException {
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode(tableName1, tableName2, "c0", "c0", Predicate.Op.EQUALS));
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(new TransactionId(),
+                "SELECT * FROM " + tableName1 + ", " + tableName2 + " WHERE "
+                        + tableName1 + ".c0 = " + tableName2 + ".c0;"), nodes);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        stats.put(tableName1, stats1);
+        filterSelectivities.put(tableName1, 1.0);
+        filterSelectivities.put(tableName2, 1.0);
+        try {
+            j.orderJoins(stats, filterSelectivities, false);
+            Assert.fail("expected a ParsingException");
+        } catch (ParsingException e) {
+            Assert.assertTrue(e.getMessage().contains(tableName2));
+        }
+
+        stats.put(tableName2, stats2);
+        filterSelectivities.remove(tableName1);
+        try {
+            j.orderJoins(stats, filterSelectivities, false);
+            Assert.fail("expected a ParsingException");
+        } catch (ParsingException e) {
+            Assert.assertTrue(e.getMessage().contains(tableName1));
+        }
+    }
+
+    /**
+     * Orders the same chain of joins by dynamic programming and, with the
+     * table limit lowered, greedily: both plans must join every table to the
+     * ones before it and read the big table last.
+     */
+    @Test
+    public void greedyOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        final int IO_COST = 103;
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        TransactionId tid = new TransactionId();
+
+        ArrayList<ArrayList<Integer>> smallTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 100,
+                Integer.MAX_VALUE, null, smallTuples, "c");
+        ArrayList<ArrayList<Integer>> bigTuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10000; i++)
+            bigTuples.add(smallTuples.get(i % 100));
+        HeapFile big = createDuplicateHeapFile(bigTuples, 2, "c");
+        Database.getCatalog().addTable(big, "bigTable");
+        stats.put("bigTable", new TableStats(big.getId(), IO_COST));
+        filterSelectivities.put("bigTable", 1.0);
+        String[] names = { "a", "b", "c", "d", "e" };
+        for (String name : names) {
+            HeapFile f = name.equals("a") ? a : createDuplicateHeapFile(smallTuples, 2, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), IO_COST));
+            filterSelectivities.put(name, 1.0);
+        }
+        for (int i = 0; i + 1 < names.length; i++)
+            nodes.add(new LogicalJoinNode(names[i], names[i + 1], "c" + (i % 2),
+                    "c" + (i % 2), Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("e", "bigTable", "c0", "c0", Predicate.Op.EQUALS));
+        Collections.shuffle(nodes, new Random(7));
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT COUNT(a.c0) FROM bigTable, a, b, c, d, e WHERE bigTable.c0 = e.c0 AND a.c0 = b.c0 AND b.c1 = c.c1 AND c.c0 = d.c0 AND d.c1 = e.c1;");
+        for (int maxDpTables : new int[] { JoinOptimizer.DEFAULT_MAX_DP_TABLES, 1 }) {
+            JoinOptimizer j = new JoinOptimizer(lp, nodes);
+            j.setMaxDpTables(maxDpTables);
+            Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+            Assert.assertEquals(nodes.size(), result.size());
+            HashSet<String> joined = new HashSet<String>();
+            joined.add(result.get(0).t1Alias);
+            joined.add(result.get(0).t2Alias);
+            for (LogicalJoinNode n : result.subList(1, result.size())) {
+                Assert.assertTrue(joined.contains(n.t1Alias) || joined.contains(n.t2Alias));
+                joined.add(n.t1Alias);
+                joined.add(n.t2Alias);
+            }
+            LogicalJoinNode last = result.get(result.size() - 1);
+            Assert.assertTrue(last.t1Alias.equals("bigTable") || last.t2Alias.equals("bigTable"));
+        }
+    }
 }
@@ -105,6 +105,91 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  private static int count(OpIterator op) throws Exception {
+    int n = 0;
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    op.close();
+    return n;
+  }
+
+  /**
+   * Unit test for Join in block nested-loop mode with an outer relation of
+   * several blocks
+   */
+  @Test public void blockNestedLoop() throws Exception {
+    Join op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TestUtil.MockScan(0, 1200, 2), new TestUtil.MockScan(0, 1200, 3));
+    op.setBlockPages(1);
+    assertEquals(1200, count(op));
+
+    op = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+        new TestUtil.MockScan(0, 1200, 2), new TestUtil.MockScan(0, 10, 3));
+    op.setBlockPages(1);
+    // outer values 0..8 each match the inner values above them
+    assertEquals(45, count(op));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using = and &gt; predicates
+   */
+  @Test public void sortMergeJoin() throws Exception {
+    SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.close();
+
+    op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for SortMergeJoin with inputs that are sorted on disk and a
+   * range prefix that spills, against Join
+   */
+  @Test public void sortMergeJoinSpill() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      SortMergeJoin smj = new SortMergeJoin(pred,
+          new TestUtil.MockScan(0, 300, 2), new TestUtil.MockScan(100, 200, 3));
+      smj.setMemoryBudget(16);
+      assertEquals(count(new Join(pred, new TestUtil.MockScan(0, 300, 2), new TestUtil.MockScan(100, 200, 3))),
+          count(smj));
+    }
+  }
+
+  /**
+   * Unit test for HashEquiJoin.nextBatch()
+   */
+  @Test public void hashEquiJoinBatch() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    TupleBatch batch = new TupleBatch(2);
+    java.util.ArrayList<Tuple> out = new java.util.ArrayList<Tuple>();
+    op.open();
+    while (op.nextBatch(batch) > 0) {
+      for (int i = 0; i < batch.size(); i++)
+        out.add(batch.get(i));
+    }
+    assertEquals(0, op.nextBatch(batch));
+    TupleIterator actual = new TupleIterator(op.getTupleDesc(), out);
+    actual.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, actual);
+
+    // rewind starts over from the first chunk of the left child
+    op.rewind();
+    assertEquals(2, op.nextBatch(batch));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures LockManager throughput with 1 to 32 threads. Every thread runs
+ * short transactions that take shared locks on a table of pages all
+ * threads read and an exclusive lock on a page of their own, then release
+ * them. Run with
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.LockManagerBenchmark [millisPerRun]
+ * </pre>
+ * It is not a JUnit test, so ant test does not pick it up.
+ */
+public class LockManagerBenchmark {
+    private static final int SHARED_PAGES = 1024;
+    private static final int LOCKS_PER_TXN = 8;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    private static long run(final int threads, long millis) throws InterruptedException {
+        final LockManager lm = new LockManager();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch ready = new CountDownLatch(threads);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                Random rand = new Random(id);
+                PageId[] held = new PageId[LOCKS_PER_TXN];
+                long done = 0;
+                ready.countDown();
+                while (!stop.get()) {
+                    TransactionId tid = new TransactionId();
+                    for (int i = 0; i < LOCKS_PER_TXN - 1; i++) {
+                        held[i] = new HeapPageId(0, rand.nextInt(SHARED_PAGES));
+                        lm.acquireLock(tid, held[i], Permissions.READ_ONLY);
+                    }
+                    held[LOCKS_PER_TXN - 1] = new HeapPageId(1 + id, rand.nextInt(SHARED_PAGES));
+                    lm.acquireLock(tid, held[LOCKS_PER_TXN - 1], Permissions.READ_WRITE);
+                    for (PageId pid : held) lm.releasePage(tid, pid);
+                    done += LOCKS_PER_TXN;
+                }
+                ops.addAndGet(done);
+            });
+            workers[t].start();
+        }
+        ready.await();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread w : workers) w.join();
+        return ops.get() * 1000 / millis;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        // warm up the JIT before measuring
+        run(4, millis);
+        long single = 0;
+        System.out.println("threads\tlocks/s\tspeedup");
+        for (int threads : THREADS) {
+            long rate = run(threads, millis);
+            if (threads == 1) single = rate;
+            System.out.printf("%d\t%d\t%.2f%n", threads, rate, (double) rate / single);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    /** Upper bound on how long a thread that should end may take */
+    private static final long JOIN_TIMEOUT = 5000;
+
+    private LockManager lm;
+    private PageId p0;
+    private TransactionId tid1;
+    private TransactionId tid2;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(0, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Unit test for shared locks, upgrades and the lock-free getLock()
+     */
+    @Test public void sharedAndUpgrade() {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY));
+        assertTrue(lm.acquireLock(tid2, p0, Permissions.READ_ONLY));
+        assertNotNull(lm.getLock(tid1, p0));
+        // two readers, neither may upgrade
+        assertFalse(lm.acquireLock(tid1, p0, Permissions.READ_WRITE));
+        lm.releasePage(tid2, p0);
+        assertNull(lm.getLock(tid2, p0));
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_WRITE));
+        assertFalse(lm.acquireLock(tid2, p0, Permissions.READ_ONLY));
+        // the upgraded lock still covers reads
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY));
+        lm.releaseAllLocks(tid1);
+        assertNull(lm.getLock(tid1, p0));
+        assertTrue(lm.acquireLock(tid2, p0, Permissions.READ_WRITE));
+    }
+
+    /**
+     * Unit test for the per-transaction index returned by lockedPages()
+     */
+    @Test public void lockedPages() {
+        PageId p1 = new HeapPageId(0, 1);
+        assertTrue(lm.lockedPages(tid1).isEmpty());
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY));
+        assertTrue(lm.acquireLock(tid1, p1, Permissions.READ_WRITE));
+        assertFalse(lm.acquireLock(tid2, p1, Permissions.READ_ONLY));
+        assertEquals(new HashSet<>(Arrays.asList(p0, p1)), new HashSet<>(lm.lockedPages(tid1)));
+        assertTrue(lm.lockedPages(tid2).isEmpty());
+        lm.releasePage(tid1, p0);
+        assertEquals(Collections.singletonList(p1), lm.lockedPages(tid1));
+        lm.releaseAllLocks(tid1);
+        assertTrue(lm.lockedPages(tid1).isEmpty());
+        assertNull(lm.getLock(tid1, p1));
+        // locks nobody holds or waits for are dropped from the lock table
+        assertEquals(0, lm.lockTableSize());
+    }
+
+    /**
+     * Many threads on a few pages: an exclusive lock is never shared
+     */
+    @Test public void mutualExclusion() throws Exception {
+        final int pages = 4;
+        final AtomicInteger[] inside = new AtomicInteger[pages];
+        for (int i = 0; i < pages; i++) inside[i] = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    TransactionId tid = new TransactionId();
+                    int pg = i % pages;
+                    PageId pid = new HeapPageId(0, pg);
+                    try {
+                        lm.acquireLock(tid, pid, Permissions.READ_WRITE, 5000);
+                    } catch (TransactionAbortedException e) {
+                        violations.incrementAndGet();
+                        continue;
+                    }
+                    if (inside[pg].incrementAndGet() != 1) violations.incrementAndGet();
+                    inside[pg].decrementAndGet();
+                    lm.releasePage(tid, pid);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(0, violations.get());
+        assertEquals(0, lm.lockTableSize());
+    }
+
+    /** Try to lock pid in a new thread, the result tells whether it got the lock. */
+    private Thread grab(final TransactionId tid, final PageId pid, final AtomicInteger result) {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(tid, pid, Permissions.READ_WRITE, LockManager.NO_TIMEOUT);
+                result.set(1);
+            } catch (TransactionAbortedException e) {
+                result.set(-1);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * tid1 and tid2 each hold a shared lock the other one wants to upgrade.
+     *
+     * @return the threads waiting for tid1's and tid2's upgrades
+     */
+    private Thread[] deadlock(AtomicInteger r1, AtomicInteger r2) throws Exception {
+        PageId p1 = new HeapPageId(0, 1);
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_ONLY));
+        assertTrue(lm.acquireLock(tid2, p1, Permissions.READ_ONLY));
+        return new Thread[] { grab(tid1, p1, r1), grab(tid2, p0, r2) };
+    }
+
+    /** Wait for t to end, failing the test if it does not end in time */
+    private static void finish(Thread t) throws InterruptedException {
+        t.join(JOIN_TIMEOUT);
+        assertFalse(t.isAlive());
+    }
+
+    /**
+     * The detector aborts the youngest transaction of a cycle
+     */
+    @Test public void youngestVictim() throws Exception {
+        AtomicInteger r1 = new AtomicInteger(), r2 = new AtomicInteger();
+        Thread[] t = deadlock(r1, r2);
+        finish(t[1]);
+        assertEquals(-1, r2.get());
+        // the survivor still waits until the victim's locks are released
+        assertEquals(0, r1.get());
+        lm.releaseAllLocks(tid2);
+        finish(t[0]);
+        assertEquals(1, r1.get());
+    }
+
+    /**
+     * With LEAST_WORK the transaction holding fewer locks is aborted
+     */
+    @Test public void leastWorkVictim() throws Exception {
+        lm.setVictimPolicy(LockManager.VictimPolicy.LEAST_WORK);
+        for (int i = 2; i < 5; i++)
+            assertTrue(lm.acquireLock(tid2, new HeapPageId(0, i), Permissions.READ_ONLY));
+        AtomicInteger r1 = new AtomicInteger(), r2 = new AtomicInteger();
+        Thread[] t = deadlock(r1, r2);
+        finish(t[0]);
+        assertEquals(-1, r1.get());
+        assertEquals(0, r2.get());
+        lm.releaseAllLocks(tid1);
+        finish(t[1]);
+        assertEquals(1, r2.get());
+    }
+
+    /**
+     * A long wait without a deadlock is not aborted
+     */
+    @Test public void noFalseAbort() throws Exception {
+        assertTrue(lm.acquireLock(tid1, p0, Permissions.READ_WRITE));
+        AtomicInteger r2 = new AtomicInteger();
+        Thread t = grab(tid2, p0, r2);
+        t.join(500);
+        assertEquals(0, r2.get());
+        lm.releasePage(tid1, p0);
+        finish(t);
+        assertEquals(1, r2.get());
+    }
+
+    /**
+     * Unit test for LockManager.findCycle()
+     */
+    @Test public void findCycle() {
+        TransactionId tid3 = new TransactionId();
+        Map<TransactionId, Set<TransactionId>> graph = new HashMap<>();
+        graph.put(tid1, Collections.singleton(tid2));
+        graph.put(tid2, Collections.singleton(tid3));
+        assertNull(LockManager.findCycle(graph));
+        graph.put(tid3, new HashSet<>(Arrays.asList(tid1, tid2)));
+        List<TransactionId> cycle = LockManager.findCycle(graph);
+        assertNotNull(cycle);
+        assertTrue(cycle.contains(tid2) && cycle.contains(tid3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
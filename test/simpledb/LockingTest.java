@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +188,29 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming blocking locks.
+   * A blocked transaction is woken up as soon as the conflicting lock is
+   * released, long before the deadlock timeout.
+   */
+  @Test public void waiterWakesOnRelease() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    t.start();
+    // wait until the grabber sleeps in the page's wait queue
+    long deadline = System.currentTimeMillis() + 5000;
+    while (t.getState() != Thread.State.WAITING) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+    assertFalse(t.acquired());
+
+    bp.releasePage(tid1, p0);
+    t.join(5000);
+    assertTrue(t.acquired());
+    assertNull(t.getError());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int rows = 1000;
+  OpIterator scan;
+
+  /**
+   * Initialize each unit test with the values 0..rows-1 in random order
+   */
+  @Before public void setUp() {
+    int[] values = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      values[2 * i] = i;
+      values[2 * i + 1] = i;
+    }
+    Random r = new Random(16);
+    for (int i = rows - 1; i > 0; i--) {
+      int j = r.nextInt(i + 1);
+      int t = values[2 * i];
+      values[2 * i] = values[2 * i + 1] = values[2 * j];
+      values[2 * j] = values[2 * j + 1] = t;
+    }
+    this.scan = TestUtil.createTupleList(2, values);
+  }
+
+  private static int value(Tuple t) {
+    return ((IntField) t.getField(0)).getValue();
+  }
+
+  /**
+   * Unit test for OrderBy with a memory budget that sorts in runs on disk
+   */
+  @Test public void externalSort() throws Exception {
+    OrderBy op = new OrderBy(0, true, scan);
+    op.setMemoryBudget(64);
+    op.open();
+    for (int i = 0; i < rows; i++)
+      assertEquals(i, value(op.next()));
+    assertFalse(op.hasNext());
+    op.rewind();
+    assertEquals(0, value(op.next()));
+    op.close();
+
+    op = new OrderBy(1, false, scan);
+    op.setMemoryBudget(100);
+    op.open();
+    for (int i = rows - 1; i >= 0; i--)
+      assertEquals(i, value(op.next()));
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy with a limit
+   */
+  @Test public void topN() throws Exception {
+    OrderBy op = new OrderBy(0, false, scan, 10);
+    op.open();
+    for (int i = rows - 1; i >= rows - 10; i--)
+      assertEquals(i, value(op.next()));
+    assertFalse(op.hasNext());
+    op.rewind();
+    assertEquals(rows - 1, value(op.next()));
+    op.close();
+
+    op = new OrderBy(0, true, scan, 0);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+
+    // a limit above the memory budget sorts everything and stops early
+    op = new OrderBy(0, true, scan, 300);
+    op.setMemoryBudget(64);
+    op.open();
+    for (int i = 0; i < 300; i++)
+      assertEquals(i, value(op.next()));
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy on two fields in opposite directions
+   */
+  @Test public void multiKey() throws Exception {
+    int[] values = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      values[2 * i] = (i * 7) % 10;
+      values[2 * i + 1] = i;
+    }
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        TestUtil.createTupleList(2, values), OrderBy.NO_LIMIT);
+    op.setMemoryBudget(64);
+    op.open();
+    Tuple prev = op.next();
+    int n = 1;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int c = Integer.compare(value(prev), value(t));
+      assertTrue(c < 0 || c == 0 && ((IntField) prev.getField(1)).getValue() > ((IntField) t.getField(1)).getValue());
+      prev = t;
+      n++;
+    }
+    assertEquals(rows, n);
+    op.close();
+  }
+
+  /**
+   * Unit test for TupleComparator on string fields, whose normalized keys
+   * only cover a prefix
+   */
+  @Test public void stringComparator() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    String[] strings = { "abcdef", "abcde", "b", "", "abcdeg", "abcd", "a" };
+    java.util.ArrayList<Tuple> l = new java.util.ArrayList<Tuple>();
+    for (int i = 0; i < strings.length; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(strings[i], Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      l.add(t);
+    }
+    TupleComparator cmp = new TupleComparator(td, 0, false);
+    cmp.sort(l);
+    String[] expected = { "b", "abcdeg", "abcdef", "abcde", "abcd", "a", "" };
+    for (int i = 0; i < expected.length; i++)
+      assertEquals(expected[i], ((StringField) l.get(i).getField(0)).getValue());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    // the table never looks inside a page, so any page that does not need
+    // the catalog will do
+    private static Page page(PageId pid) throws Exception {
+        return new BTreeRootPtrPage(new BTreePageId(pid.getTableId(), 0, BTreePageId.ROOT_PTR),
+                BTreeRootPtrPage.createEmptyPageData());
+    }
+
+    /**
+     * Unit test for PageTable.put(), get() and remove()
+     */
+    @Test public void putGetRemove() throws Exception {
+        PageTable table = new PageTable(4);
+        HeapPageId pid = new HeapPageId(7, 3);
+        Page p = page(pid);
+        assertNull(table.get(pid));
+        assertNull(table.put(pid, p));
+        assertSame(p, table.get(new HeapPageId(7, 3)));
+        assertTrue(table.containsKey(pid));
+        assertEquals(1, table.size());
+
+        Page p2 = page(pid);
+        assertSame(p, table.put(pid, p2));
+        assertSame(p2, table.get(pid));
+        assertEquals(1, table.size());
+
+        assertSame(p2, table.remove(pid));
+        assertNull(table.remove(pid));
+        assertFalse(table.containsKey(pid));
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Page ids whose hashCode() collide must not alias each other
+     */
+    @Test public void noAliasing() throws Exception {
+        // BTreePageId.hashCode() is (tableId << 16) + (pgNo << 2) + pgcateg
+        BTreePageId a = new BTreePageId(0, 1 << 14, BTreePageId.LEAF);
+        BTreePageId b = new BTreePageId(1, 0, BTreePageId.LEAF);
+        assertEquals(a.hashCode(), b.hashCode());
+        PageTable table = new PageTable(4);
+        Page pa = page(a);
+        Page pb = page(b);
+        table.put(a, pa);
+        table.put(b, pb);
+        assertSame(pa, table.get(a));
+        assertSame(pb, table.get(b));
+        assertEquals(2, table.size());
+        assertFalse(PageTable.key(new BTreePageId(1, 5, BTreePageId.LEAF))
+                == PageTable.key(new BTreePageId(1, 5, BTreePageId.INTERNAL)));
+    }
+
+    /**
+     * Random puts and removes, checked against a HashMap, exercise resizing
+     * and backward shift deletion
+     */
+    @Test public void randomOperations() throws Exception {
+        PageTable table = new PageTable(2);
+        Map<PageId, Page> expected = new HashMap<PageId, Page>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            HeapPageId pid = new HeapPageId(rand.nextInt(4), rand.nextInt(300));
+            if (rand.nextInt(3) == 0) {
+                assertSame(expected.remove(pid), table.remove(pid));
+            } else {
+                Page p = page(pid);
+                assertSame(expected.put(pid, p), table.put(pid, p));
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        assertEquals(expected.size(), table.values().size());
+        for (Map.Entry<PageId, Page> e : expected.entrySet())
+            assertSame(e.getValue(), table.get(e.getKey()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
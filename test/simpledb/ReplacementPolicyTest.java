@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ALL = pid -> true;
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: referenced pages get a second chance
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy p = new ClockReplacementPolicy();
+        for (int i = 0; i < 3; i++) p.pageLoaded(pid(i));
+        // first sweep clears every reference bit, then page 0 is the victim
+        assertEquals(pid(0), p.chooseVictim(ALL));
+        p.pageRemoved(pid(0));
+        p.pageLoaded(pid(3));
+        p.pageHit(pid(1));
+        assertEquals(pid(2), p.chooseVictim(ALL));
+    }
+
+    /**
+     * Unit test for LRUKReplacementPolicy: pages seen once go before hot pages
+     */
+    @Test public void lruKPrefersColdPages() {
+        ReplacementPolicy p = new LRUKReplacementPolicy();
+        p.pageLoaded(pid(0));
+        p.pageHit(pid(0));
+        for (int i = 1; i < 4; i++) p.pageLoaded(pid(i));
+        assertEquals(pid(1), p.chooseVictim(ALL));
+        assertEquals(pid(2), p.chooseVictim(pid -> !pid.equals(pid(1))));
+        // only the hot page is left
+        assertEquals(pid(0), p.chooseVictim(pid -> pid.getPageNumber() == 0));
+    }
+
+    /**
+     * Unit test for TwoQReplacementPolicy: a scan never evicts pages in Am
+     */
+    @Test public void twoQScanResistance() {
+        ReplacementPolicy p = new TwoQReplacementPolicy(1, 4);
+        p.pageLoaded(pid(0));
+        p.pageRemoved(pid(0));
+        // page 0 comes back while remembered in A1out, so it is hot now
+        p.pageLoaded(pid(0));
+        p.pageLoaded(pid(1));
+        p.pageLoaded(pid(2));
+        // a pool of three frames scanning pages 3..9 only cycles through A1in
+        for (int i = 3; i < 10; i++) {
+            PageId victim = p.chooseVictim(ALL);
+            assertEquals(pid(i - 2), victim);
+            p.pageRemoved(victim);
+            p.pageLoaded(pid(i));
+        }
+        assertEquals(pid(8), p.chooseVictim(ALL));
+        assertEquals(pid(0), p.chooseVictim(pid -> pid.getPageNumber() < 8));
+    }
+
+    /**
+     * Unit test for ReplacementPolicy.chooseVictim() with nothing evictable
+     */
+    @Test public void noVictim() {
+        ReplacementPolicy[] policies = { new ClockReplacementPolicy(),
+                new LRUKReplacementPolicy(), new TwoQReplacementPolicy(4) };
+        for (ReplacementPolicy p : policies) {
+            assertNull(p.chooseVictim(ALL));
+            p.pageLoaded(pid(0));
+            assertNull(p.chooseVictim(pid -> false));
+        }
+    }
+
+    /**
+     * Unit test for BufferPool hit/miss counters
+     */
+    @Test public void hitMissCounters() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        BufferPool bp = new BufferPool(2, new ClockReplacementPolicy());
+        TransactionId tid = new TransactionId();
+        assertEquals(4, f.numPages());
+        for (int round = 0; round < 2; round++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+        }
+        assertEquals(2, bp.getMissCount());
+        assertEquals(4, bp.getHitCount());
+        bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(3, bp.getMissCount());
+        bp.resetStatistics();
+        assertEquals(0, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
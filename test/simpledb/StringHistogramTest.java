@@ -0,0 +1,99 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class StringHistogramTest {
+
+	/** @return "key" followed by i as four digits, so all keys share a long prefix */
+	private static String key(int i) {
+		return String.format("key%04d", i);
+	}
+
+	/**
+	 * Test EQUALS on strings that agree on their first four characters.
+	 */
+	@Test public void equalsTest() {
+		StringHistogram h = new StringHistogram(100);
+		for (int i = 0; i < 1000; i++)
+			h.addValue(key(i));
+
+		double sel = h.estimateSelectivity(Op.EQUALS, key(500));
+		Assert.assertTrue(sel > 0.0002 && sel < 0.005);
+		// outside the range of the values
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, "zzz"), 0.0);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, "a"), 0.0);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.NOT_EQUALS, "zzz"), 0.0);
+		Assert.assertEquals(1000, h.distinctValues());
+	}
+
+	/**
+	 * Test that a frequent value is estimated from the most common values.
+	 */
+	@Test public void mostCommonValueTest() {
+		StringHistogram h = new StringHistogram(10);
+		for (int i = 0; i < 700; i++)
+			h.addValue(key(i));
+		for (int i = 0; i < 300; i++)
+			h.addValue(key(123));
+
+		Assert.assertEquals(0.301, h.estimateSelectivity(Op.EQUALS, key(123)), 0.01);
+		Assert.assertEquals(0.699, h.estimateSelectivity(Op.NOT_EQUALS, key(123)), 0.01);
+		Assert.assertTrue(h.estimateSelectivity(Op.EQUALS, key(124)) < 0.01);
+	}
+
+	/**
+	 * Test range predicates between strings that share a prefix: the
+	 * characters after the prefix decide where a string falls.
+	 */
+	@Test public void rangeTest() {
+		StringHistogram h = new StringHistogram(100);
+		for (int i = 0; i < 1000; i++)
+			h.addValue(key(i));
+
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.LESS_THAN, key(250)), 0.02);
+		Assert.assertEquals(0.251, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, key(250)), 0.02);
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, key(750)), 0.02);
+		Assert.assertEquals(0.249, h.estimateSelectivity(Op.GREATER_THAN, key(750)), 0.02);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN, "a"), 0.0);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, "zzz"), 0.0);
+	}
+
+	/**
+	 * Test range predicates when only a sample of the values is kept.
+	 */
+	@Test public void sampledRangeTest() {
+		StringHistogram h = new StringHistogram(10);
+		for (int i = 0; i < 100000; i++)
+			h.addValue(key(i % 10000));
+
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN, key(5000)), 0.05);
+		Assert.assertEquals(0.1, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, key(9000)), 0.05);
+		Assert.assertEquals(10000, h.distinctValues(), 500);
+	}
+
+	/**
+	 * Test LIKE, estimated from the sampled values that contain the string.
+	 */
+	@Test public void likeTest() {
+		StringHistogram h = new StringHistogram(10);
+		for (int i = 0; i < 1000; i++)
+			h.addValue(i % 4 == 0 ? "xabc" + i : "x" + i);
+
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.LIKE, "abc"), 0.01);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.LIKE, "x"), 0.0);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LIKE, "zzz"), 0.0);
+	}
+
+	/**
+	 * Test an empty histogram.
+	 */
+	@Test public void emptyTest() {
+		StringHistogram h = new StringHistogram(10);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, "a"), 0.0);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LIKE, "a"), 0.0);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.NOT_EQUALS, "a"), 0.0);
+	}
+}
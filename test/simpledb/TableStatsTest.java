@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -151,4 +152,76 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that statistics computed from a sample of the pages estimate
+	 * the size and the distribution of the whole table
+	 */
+	@Test public void sampledStatisticsTest() {
+		Assert.assertTrue(f.numPages() > TableStats.MIN_SAMPLE_PAGES);
+		TableStats s = new TableStats(this.tableId, IO_COST, 0.1, null);
+		
+		Assert.assertEquals(10200, s.totalTuples(), 102);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(1.0/32.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(16)), 0.015);
+			Assert.assertEquals(0.5, s.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+			Assert.assertEquals(32, s.distinctValues(col), 2);
+		}
+	}
+	
+	/**
+	 * Verify that computeStatistics, which reads tables and columns in
+	 * parallel, computes the same statistics as a TableStats built on its own
+	 */
+	@Test public void computeStatisticsTest() {
+		TableStats.computeStatistics();
+		TableStats parallel = TableStats.getTableStats(tableName);
+		TableStats serial = new TableStats(this.tableId, IO_COST);
+		
+		Assert.assertEquals(serial.totalTuples(), parallel.totalTuples());
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(serial.distinctValues(col), parallel.distinctValues(col));
+			for (int v = -1; v <= 33; v += 4)
+				Assert.assertEquals(serial.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(v)),
+						parallel.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(v)), 0.0);
+		}
+	}
+
+	/**
+	 * A TableStats that fails to read a page still releases the read locks
+	 * on the pages it read before
+	 */
+	@Test public void failedReadReleasesLocks() throws Exception {
+		File file = SystemTestUtil.createRandomHeapFileUnopened(10, 10200, 32, null, null);
+		HeapFile broken = new HeapFile(file, Utility.getTupleDesc(10)) {
+			@Override public Page readPage(PageId pid) {
+				if (pid.getPageNumber() == 1)
+					throw new RuntimeException("unreadable page");
+				return super.readPage(pid);
+			}
+		};
+		Database.getCatalog().addTable(broken, SystemTestUtil.getUUID());
+		try {
+			new TableStats(broken.getId(), IO_COST, 1.0, null);
+			Assert.fail("reading page 1 should fail");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		final PageId first = new HeapPageId(broken.getId(), 0);
+		final TransactionId tid = new TransactionId();
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					Database.getBufferPool().getPage(tid, first, Permissions.READ_WRITE);
+				} catch (Exception e) {
+					// holdsLock() stays false
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+		writer.join(5000);
+		Assert.assertTrue(Database.getBufferPool().holdsLock(tid, first));
+		Database.getBufferPool().transactionComplete(tid);
+	}
 }
@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -205,6 +206,71 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
     
+    /** Test that the planner reads a BTreeFile through its index for selective key filters and key order */
+    @Test public void testIndexAccessPath() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        BTreeFile table = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "btable");
+        final int rows = tuples.size();
+        // an equality on the key selects a few tuples, a range all of them
+        TableStats stats = new TableStats(table.getId(), 1000) {
+            @Override public double estimateSelectivity(int field, Op op, Field constant) {
+                return op == Op.EQUALS ? 1.0 / rows : 1.0;
+            }
+        };
+        HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put("btable", stats);
+        TransactionId tid = new TransactionId();
+
+        int key = tuples.get(r.nextInt(rows)).get(0);
+        int expected = 0;
+        for (ArrayList<Integer> tup : tuples)
+            if (tup.get(0) == key) expected++;
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Op.EQUALS, "" + key);
+        lp.addProjectField("t.c1", null);
+        OpIterator plan = lp.physicalPlan(tid, statsMap, false);
+        assertTrue(lp.getAccessPath("t") instanceof BTreeScan);
+        assertEquals(expected, count(plan, null));
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Op.GREATER_THAN, "-1");
+        lp.addProjectField("t.c0", null);
+        plan = lp.physicalPlan(tid, statsMap, false);
+        assertTrue(lp.getAccessPath("t") instanceof Filter);
+        assertTrue(((Filter) lp.getAccessPath("t")).getChildren()[0] instanceof SeqScan);
+
+        // ordered by the key, the index is read backwards instead of sorting
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        lp.addOrderBy("t.c0", false);
+        plan = lp.physicalPlan(tid, statsMap, false);
+        assertTrue(lp.getAccessPath("t") instanceof BTreeReverseScan);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof OrderBy);
+        assertEquals(rows, count(plan, Op.GREATER_THAN_OR_EQ));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the number of tuples of plan, checking that their first fields are in order op if it is not null */
+    private static int count(OpIterator plan, Op op) throws Exception {
+        plan.open();
+        int n = 0;
+        Field prev = null;
+        while (plan.hasNext()) {
+            Field f = plan.next().getField(0);
+            if (op != null && prev != null)
+                assertTrue(prev.compare(op, f));
+            prev = f;
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
     /** Test that scanning the BTree for predicates does not read all the pages */
     @Test public void testReadPage() throws Exception {
     	// Create the table
@@ -2,10 +2,13 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertTrue;
+
 import simpledb.*;
 
 public class JoinTest extends SimpleDbTestBase {
@@ -69,6 +72,125 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    /**
+     * A HashEquiJoin whose build side is much bigger than its memory budget
+     * spills both sides to partitions, partitions them again on the next bits
+     * of the hash, and still finds every match, including a key so frequent
+     * that no partitioning can split it.
+     */
+    @Test public void testHashJoinSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 300, null, t1Tuples);
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        for (int i = 0; i < 300; i++)
+            t1Tuples.add(new ArrayList<Integer>(Arrays.asList(7, i)));
+        for (ArrayList<Integer> t1 : t1Tuples)
+            left.add(Utility.getHeapTuple(new int[] { t1.get(0), t1.get(1) }));
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 1500, 300, null, t2Tuples);
+
+        ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin joinOp = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(Utility.getTupleDesc(COLUMNS), left), new SeqScan(tid, table2.getId(), ""));
+        joinOp.setMemoryBudget(100 * Utility.getTupleDesc(COLUMNS).getSize());
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index nested-loop Join probes a BTreeFile keyed on the inner join
+     * field, for equality and range predicates.
+     */
+    @Test public void testIndexNestedLoop()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 200, 1000, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(COLUMNS, 3000, 1000, null, t2Tuples, 0);
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN }) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t1 : t1Tuples) {
+                for (ArrayList<Integer> t2 : t2Tuples) {
+                    if (p.filter(Utility.getHeapTuple(new int[] { t1.get(0) }), Utility.getHeapTuple(new int[] { t2.get(0) }))) {
+                        ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                        out.addAll(t2);
+                        expectedResults.add(out);
+                    }
+                }
+            }
+
+            TransactionId tid = new TransactionId();
+            Join joinOp = new Join(p, new SeqScan(tid, table1.getId(), ""),
+                    new BTreeScan(tid, index.getId(), "", null), index, tid);
+            assertTrue(joinOp.isIndexJoin());
+            SystemTestUtil.matchTuples(joinOp, expectedResults);
+            joinOp.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * A SortMergeJoin reads BTreeScans keyed on the join field as they are
+     * and sorts any other child, for equality and range predicates.
+     */
+    @Test public void testSortMergeJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index1 = BTreeUtility.createRandomBTreeFile(COLUMNS, 50, 100, null, t1Tuples, 0);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile index2 = BTreeUtility.createRandomBTreeFile(COLUMNS, 100, 100, null, t2Tuples, 0);
+        ArrayList<ArrayList<Integer>> t3Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table3 = SystemTestUtil.createRandomHeapFile(COLUMNS, 80, 100, null, t3Tuples);
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN }) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            TransactionId tid = new TransactionId();
+            SortMergeJoin joinOp = new SortMergeJoin(p, new BTreeScan(tid, index1.getId(), "", null),
+                    new BTreeScan(tid, index2.getId(), "", null));
+            SystemTestUtil.matchTuples(joinOp, expectedJoin(p, t1Tuples, t2Tuples));
+            joinOp.close();
+
+            // the heap file on the left is sorted in runs of 20 tuples
+            joinOp = new SortMergeJoin(p, new SeqScan(tid, table3.getId(), ""),
+                    new BTreeScan(tid, index2.getId(), "", null));
+            joinOp.setMemoryBudget(20);
+            SystemTestUtil.matchTuples(joinOp, expectedJoin(p, t3Tuples, t2Tuples));
+            joinOp.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private static ArrayList<ArrayList<Integer>> expectedJoin(JoinPredicate p,
+            ArrayList<ArrayList<Integer>> t1Tuples, ArrayList<ArrayList<Integer>> t2Tuples) {
+        ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (p.filter(Utility.getHeapTuple(new int[] { t1.get(0) }), Utility.getHeapTuple(new int[] { t2.get(0) }))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+        return expectedResults;
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
@@ -427,6 +427,64 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestStealAbort()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // one transaction dirties more pages than the buffer pool holds,
+        // so dirty pages must be stolen; abort must still undo all of them
+
+        Database.resetBufferPool(2);
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (int i = 0; i < 3 * 504; i++)
+            insertRow(hf1, t1, 100 + i, 0);
+        t1.abort();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 100, false);
+        look(hf1, t, 100 + 3 * 504 - 1, false);
+        t.commit();
+    }
+
+    @Test public void TestStealOpenCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 steals pages and commits, T2 steals pages but does not commit
+        // crash: only T1 data should be there
+
+        Database.resetBufferPool(2);
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (int i = 0; i < 2 * 504; i++)
+            insertRow(hf1, t1, 100 + i, 0);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        for (int i = 0; i < 2 * 504; i++)
+            insertRow(hf1, t2, 5000 + i, 0);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 100, true);
+        look(hf1, t, 100 + 2 * 504 - 1, true);
+        look(hf1, t, 5000, false);
+        look(hf1, t, 5000 + 2 * 504 - 1, false);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
@@ -67,6 +67,27 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test that SeqScan.nextBatch() returns every tuple, in order. */
+    @Test public void testBatch() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        TupleBatch batch = new TupleBatch();
+        scan.open();
+        assertTrue(scan.hasNext());
+        int i = 0;
+        while (scan.nextBatch(batch) > 0) {
+            for (int j = 0; j < batch.size(); j++)
+                assertEquals(tuples.get(i++), SystemTestUtil.tupleToList(batch.get(j)));
+        }
+        assertEquals(tuples.size(), i);
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */